@@ -15,6 +15,9 @@ import java.util.Set;
 
 import in.notyouraveragedev.sharedpreference.domain.CustomObject;
 import in.notyouraveragedev.sharedpreference.domain.NonSerializable;
+import in.notyouraveragedev.sharedpreference.util.PreferenceManager;
+import in.notyouraveragedev.simplepreference.MigrationProgress;
+import in.notyouraveragedev.simplepreference.PreferenceMigration;
 import in.notyouraveragedev.simplepreference.SimplePreferenceManager;
 
 public class MainActivity extends AppCompatActivity {
@@ -55,6 +58,8 @@ public class MainActivity extends AppCompatActivity {
                 .withObjectStorageSupport()
                 .build();
 
+        migrateLegacyPreferences();
+
         // if data is available in shared preference then load the data from shared preference
         // if its not, the save the data into shared preference
         if (savedDataExists()) {
@@ -147,6 +152,30 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    /**
+     * Moves the data stored by the legacy PreferenceManager into the SimplePreferenceManager in background,
+     * resuming from where it stopped if the app was killed during the migration
+     */
+    @SuppressWarnings("deprecation")
+    private void migrateLegacyPreferences() {
+        new PreferenceMigration.PreferenceMigrationBuilder(getApplicationContext(),
+                PreferenceManager.PREFERENCE_NAME, preferenceManager)
+                .withBatchSize(100)
+                .withListener(new PreferenceMigration.Listener() {
+                    @Override
+                    public void onProgress(MigrationProgress progress) {
+                        Log.d("Migration", progress.toString());
+                    }
+
+                    @Override
+                    public void onComplete(MigrationProgress progress) {
+                        Log.i("Migration", "Legacy preferences migrated: " + progress);
+                    }
+                })
+                .build()
+                .start();
+    }
+
     private boolean savedDataExists() {
         return preferenceManager.fetchBoolean("isDataSaved");
     }
@@ -2,9 +2,12 @@ package in.notyouraveragedev.sharedpreference.domain;
 
 import java.io.Serializable;
 
+import in.notyouraveragedev.simplepreference.annotation.StoredObject;
+
 /**
  * Created by A Anand on 14-05-2020
  */
+@StoredObject
 public class CustomObject implements Serializable {
     private String name;
     private String age;
@@ -9,13 +9,17 @@ import com.google.gson.Gson;
  * Preference Manager class handles all the operations on the Android SharedPreference.
  * <p>
  * Created by A Anand on 14-05-2020
+ *
+ * @deprecated use SimplePreferenceManager, the data of this class is moved into it by the
+ * PreferenceMigration started in MainActivity
  */
+@Deprecated
 public class PreferenceManager {
 
     /**
      * Name of the SharedPreferences
      */
-    private static final String PREFERENCE_NAME = "in.notyouraveragedev.sharedpreference";
+    public static final String PREFERENCE_NAME = "in.notyouraveragedev.sharedpreference";
 
     /**
      * Singleton Instance of this class.
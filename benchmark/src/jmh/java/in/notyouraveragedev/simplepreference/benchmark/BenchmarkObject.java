@@ -0,0 +1,44 @@
+package in.notyouraveragedev.simplepreference.benchmark;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CustomObject-style payload used by the object benchmarks
+ */
+public class BenchmarkObject implements Serializable {
+    private String name;
+    private String age;
+    private List<String> tags;
+    private Map<String, Integer> counters;
+
+    public BenchmarkObject() {
+    }
+
+    /**
+     * @return a payload with only a name and an age, like the CustomObject of the sample app
+     */
+    static BenchmarkObject small() {
+        BenchmarkObject object = new BenchmarkObject();
+        object.name = "object name";
+        object.age = "99";
+        return object;
+    }
+
+    /**
+     * @return a payload of a few tens of kilobytes, like a cached api response
+     */
+    static BenchmarkObject large() {
+        BenchmarkObject object = small();
+        object.tags = new ArrayList<>();
+        object.counters = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            object.tags.add("tag-" + i);
+            object.counters.put("counter-" + i, i * 31);
+        }
+        return object;
+    }
+}
@@ -0,0 +1,68 @@
+package in.notyouraveragedev.simplepreference.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import in.notyouraveragedev.simplepreference.SimplePreferenceManager;
+import in.notyouraveragedev.simplepreference.storage.InMemoryStorage;
+
+/**
+ * Overhead of the encrypted mode over the plain mode, on the in-memory backend so that only the encryption
+ * is measured
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EncryptionBenchmark {
+
+    @Param({"plain", "encrypted", "hashedKeyNames"})
+    public String mode;
+
+    private SimplePreferenceManager preferenceManager;
+    private int counter;
+
+    @Setup
+    public void setUpManager() {
+        SimplePreferenceManager.SimplePreferenceManagerBuilder builder =
+                new SimplePreferenceManager.SimplePreferenceManagerBuilder().usingStorage(new InMemoryStorage());
+        if (!"plain".equals(mode)) {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            builder.withEncryption(new SecretKeySpec(key, "AES"), "hashedKeyNames".equals(mode));
+        }
+        preferenceManager = builder.build();
+        preferenceManager.saveString("string", "stored value");
+        preferenceManager.saveInteger("integer", 42);
+    }
+
+    @Benchmark
+    public boolean saveString() {
+        return preferenceManager.saveString("string", "value-" + (counter++ & 1023));
+    }
+
+    @Benchmark
+    public boolean saveInteger() {
+        return preferenceManager.saveInteger("integer", counter++);
+    }
+
+    @Benchmark
+    public String fetchString() {
+        return preferenceManager.fetchString("string");
+    }
+
+    @Benchmark
+    public Integer fetchInteger() {
+        return preferenceManager.fetchInteger("integer");
+    }
+}
@@ -0,0 +1,41 @@
+package in.notyouraveragedev.simplepreference.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * saveObject / fetchObject round trips of small and large payloads
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ObjectBenchmark extends PreferenceBenchmarkState {
+
+    @Param({"small", "large"})
+    public String payload;
+
+    private BenchmarkObject object;
+
+    @Override
+    protected void setUpBenchmark() {
+        object = "large".equals(payload) ? BenchmarkObject.large() : BenchmarkObject.small();
+        preferenceManager.saveObject("object", object);
+    }
+
+    @Benchmark
+    public boolean saveObject() {
+        return preferenceManager.saveObject("object", object);
+    }
+
+    @Benchmark
+    public Object fetchObject() {
+        return preferenceManager.fetchObject("object", BenchmarkObject.class);
+    }
+}
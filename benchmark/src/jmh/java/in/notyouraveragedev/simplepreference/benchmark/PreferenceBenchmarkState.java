@@ -0,0 +1,82 @@
+package in.notyouraveragedev.simplepreference.benchmark;
+
+import android.content.SharedPreferences;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import in.notyouraveragedev.simplepreference.SimplePreferenceManager;
+import in.notyouraveragedev.simplepreference.codec.BinaryCodec;
+import in.notyouraveragedev.simplepreference.codec.GsonCodec;
+import in.notyouraveragedev.simplepreference.storage.FileStorage;
+import in.notyouraveragedev.simplepreference.storage.InMemoryStorage;
+import in.notyouraveragedev.simplepreference.storage.MappedLogStorage;
+
+/**
+ * Base state of the benchmarks, creating a SimplePreferenceManager for every combination
+ * of storage backend and object codec inside a fresh temporary directory.
+ */
+public abstract class PreferenceBenchmarkState {
+
+    @Param({"memory", "file", "mappedLog"})
+    public String backend;
+
+    @Param({"gson", "binary"})
+    public String serializer;
+
+    protected SimplePreferenceManager preferenceManager;
+
+    private File directory;
+    private SharedPreferences storage;
+
+    @Setup
+    public final void setUpManager() throws IOException {
+        directory = Files.createTempDirectory("simplepreference-benchmark").toFile();
+        storage = createStorage();
+        preferenceManager = new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(storage)
+                .withObjectStorageSupport("binary".equals(serializer) ? new BinaryCodec() : new GsonCodec())
+                .build();
+        setUpBenchmark();
+    }
+
+    /**
+     * Prepares the data of the benchmark once the SimplePreferenceManager is created
+     */
+    protected void setUpBenchmark() {
+    }
+
+    @TearDown
+    public void tearDownManager() throws IOException {
+        if (storage instanceof Closeable)
+            ((Closeable) storage).close();
+        deleteRecursively(directory);
+    }
+
+    private SharedPreferences createStorage() throws IOException {
+        switch (backend) {
+            case "memory":
+                return new InMemoryStorage();
+            case "file":
+                return FileStorage.open(new File(directory, "benchmark.prefs"));
+            case "mappedLog":
+                return MappedLogStorage.open(new File(directory, "benchmark.mlog"));
+            default:
+                throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                deleteRecursively(child);
+        file.delete();
+    }
+}
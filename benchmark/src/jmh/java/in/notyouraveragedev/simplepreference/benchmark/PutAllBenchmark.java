@@ -0,0 +1,39 @@
+package in.notyouraveragedev.simplepreference.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * putAll of maps of different sizes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PutAllBenchmark extends PreferenceBenchmarkState {
+
+    @Param({"10", "1000", "10000"})
+    public int entries;
+
+    private Map<String, String> keyValuePairs;
+
+    @Override
+    protected void setUpBenchmark() {
+        keyValuePairs = new HashMap<>();
+        for (int i = 0; i < entries; i++)
+            keyValuePairs.put("key-" + i, "value-" + i);
+    }
+
+    @Benchmark
+    public boolean putAll() {
+        return preferenceManager.putAll(keyValuePairs);
+    }
+}
@@ -0,0 +1,46 @@
+package in.notyouraveragedev.simplepreference.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * removeAll of a populated store, the store is filled again before every invocation
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RemoveAllBenchmark extends PreferenceBenchmarkState {
+
+    @Param({"1000"})
+    public int entries;
+
+    private Map<String, Long> keyValuePairs;
+
+    @Override
+    protected void setUpBenchmark() {
+        keyValuePairs = new HashMap<>();
+        for (int i = 0; i < entries; i++)
+            keyValuePairs.put("key-" + i, (long) i);
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        preferenceManager.putAll(keyValuePairs);
+    }
+
+    @Benchmark
+    public void removeAll() {
+        preferenceManager.removeAll();
+    }
+}
@@ -0,0 +1,47 @@
+package in.notyouraveragedev.simplepreference.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single value saveX / fetchX operations
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SaveFetchBenchmark extends PreferenceBenchmarkState {
+
+    private int counter;
+
+    @Override
+    protected void setUpBenchmark() {
+        preferenceManager.saveString("string", "stored value");
+        preferenceManager.saveInteger("integer", 42);
+    }
+
+    @Benchmark
+    public boolean saveString() {
+        return preferenceManager.saveString("string", "value-" + (counter++ & 1023));
+    }
+
+    @Benchmark
+    public boolean saveInteger() {
+        return preferenceManager.saveInteger("integer", counter++);
+    }
+
+    @Benchmark
+    public String fetchString() {
+        return preferenceManager.fetchString("string");
+    }
+
+    @Benchmark
+    public Integer fetchInteger() {
+        return preferenceManager.fetchInteger("integer");
+    }
+}
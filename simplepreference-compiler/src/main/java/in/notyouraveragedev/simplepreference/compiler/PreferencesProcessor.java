@@ -0,0 +1,346 @@
+package in.notyouraveragedev.simplepreference.compiler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor generating a typed facade over SimplePreferenceManager for every interface
+ * annotated with {@code @Preferences}.
+ * <p>
+ * The generated accessors call the unboxed fetch / save overloads of SimplePreferenceManager with keys
+ * declared as compile-time constants, so no reflection is involved at runtime and every default value
+ * is checked at compile time.
+ */
+public class PreferencesProcessor extends AbstractProcessor {
+
+    private static final String PREFERENCES_ANNOTATION = "in.notyouraveragedev.simplepreference.annotation.Preferences";
+    private static final String KEY_ANNOTATION = "in.notyouraveragedev.simplepreference.annotation.Key";
+    private static final String MANAGER_CLASS = "in.notyouraveragedev.simplepreference.SimplePreferenceManager";
+    private static final String GENERATED_SUFFIX = "Preferences";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(PREFERENCES_ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.INTERFACE) {
+                    error(element, "@Preferences can only be applied to interfaces");
+                    continue;
+                }
+                TypeElement type = (TypeElement) element;
+                if (!type.getTypeParameters().isEmpty()) {
+                    error(type, "@Preferences interfaces must not have type parameters");
+                    continue;
+                }
+                List<PreferenceKey> keys = readKeys(type);
+                if (keys != null)
+                    generate(type, keys);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the keys declared by the getters of the interface
+     *
+     * @return the keys, or null if the interface is invalid, in which case errors have been reported
+     */
+    private List<PreferenceKey> readKeys(TypeElement type) {
+        List<PreferenceKey> keys = new ArrayList<>();
+        Map<String, ExecutableElement> methodsByKey = new HashMap<>();
+        boolean isValid = true;
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.METHOD)
+                continue;
+            ExecutableElement method = (ExecutableElement) member;
+            if (method.getModifiers().contains(Modifier.STATIC) || method.getModifiers().contains(Modifier.DEFAULT))
+                continue;
+
+            AnnotationMirror keyAnnotation = ProcessorUtils.findAnnotation(method, KEY_ANNOTATION);
+            if (keyAnnotation == null) {
+                error(method, "Methods of @Preferences interfaces must be annotated with @Key");
+                isValid = false;
+                continue;
+            }
+            if (!method.getParameters().isEmpty() || !method.getTypeParameters().isEmpty()
+                    || method.getReturnType().getKind() == TypeKind.VOID) {
+                error(method, "@Key methods must be getters without parameters");
+                isValid = false;
+                continue;
+            }
+
+            String key = (String) ProcessorUtils.getAnnotationValue(keyAnnotation, "value");
+            String defaultValue = (String) ProcessorUtils.getAnnotationValue(keyAnnotation, "defaultValue");
+            if (key == null || key.isEmpty()) {
+                error(method, "@Key value must not be empty");
+                isValid = false;
+                continue;
+            }
+            if (methodsByKey.containsKey(key)) {
+                error(method, "Key \"" + key + "\" is already used by " + methodsByKey.get(key).getSimpleName());
+                isValid = false;
+                continue;
+            }
+            methodsByKey.put(key, method);
+
+            PreferenceKey preferenceKey = PreferenceKey.of(method, key, defaultValue == null ? "" : defaultValue);
+            if (preferenceKey.error != null) {
+                error(method, preferenceKey.error);
+                isValid = false;
+                continue;
+            }
+            for (PreferenceKey existing : keys) {
+                if (existing.propertyName.equals(preferenceKey.propertyName)) {
+                    error(method, "Accessors of " + method.getSimpleName() + " clash with those of " + existing.getterName);
+                    isValid = false;
+                }
+            }
+            keys.add(preferenceKey);
+        }
+        return isValid ? keys : null;
+    }
+
+    private void generate(TypeElement type, List<PreferenceKey> keys) {
+        String packageName = ProcessorUtils.getPackage(type).getQualifiedName().toString();
+        String className = ProcessorUtils.getFlatName(type) + GENERATED_SUFFIX;
+        String interfaceName = type.getQualifiedName().toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("import ").append(MANAGER_CLASS).append(";\n\n");
+        source.append("/**\n")
+                .append(" * Typed preference accessors generated from {@link ").append(interfaceName).append("}, do not edit.\n")
+                .append(" */\n");
+        source.append("public final class ").append(className).append(" implements ").append(interfaceName).append(" {\n\n");
+        for (PreferenceKey key : keys)
+            source.append("    public static final String ").append(key.constantName).append(" = ")
+                    .append(ProcessorUtils.stringLiteral(key.key)).append(";\n");
+        source.append("\n    private final SimplePreferenceManager preferenceManager;\n\n");
+        source.append("    public ").append(className).append("(SimplePreferenceManager preferenceManager) {\n")
+                .append("        this.preferenceManager = preferenceManager;\n")
+                .append("    }\n");
+        for (PreferenceKey key : keys)
+            key.writeAccessors(source);
+        source.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try {
+            ProcessorUtils.writeSource(processingEnv.getFiler(), qualifiedName, type, source.toString());
+        } catch (IOException e) {
+            error(type, "Could not write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * A key declared by a getter, along with the code to access it
+     */
+    private static class PreferenceKey {
+        private String key;
+        private String getterName;
+        private String propertyName;
+        private String constantName;
+        private String typeName;
+        private String fetchMethod;
+        private String saveMethod;
+        private String defaultLiteral;
+        private boolean isString;
+        private boolean isObject;
+        /**
+         * Whether the key is read as Integer, Long, Float or Boolean, which is null when nothing is stored
+         * unless a default value is specified
+         */
+        private boolean isBoxed;
+        private boolean hasDefault;
+        private String error;
+
+        static PreferenceKey of(ExecutableElement getter, String key, String defaultValue) {
+            PreferenceKey preferenceKey = new PreferenceKey();
+            preferenceKey.key = key;
+            preferenceKey.getterName = getter.getSimpleName().toString();
+            preferenceKey.propertyName = toPropertyName(preferenceKey.getterName);
+            preferenceKey.constantName = "KEY_" + toConstantName(preferenceKey.propertyName);
+            preferenceKey.readType(getter.getReturnType(), defaultValue);
+            return preferenceKey;
+        }
+
+        private void readType(TypeMirror type, String defaultValue) {
+            typeName = type.toString();
+            hasDefault = !defaultValue.isEmpty();
+            TypeKind kind = type.getKind();
+            if (kind == TypeKind.DECLARED) {
+                kind = getUnboxedKind((DeclaredType) type);
+                if (kind == null) {
+                    readDeclaredType((DeclaredType) type, defaultValue);
+                    return;
+                }
+                isBoxed = true;
+            }
+            try {
+                switch (kind) {
+                    case INT:
+                        setAccessors("fetchInteger", "saveInteger", defaultValue.isEmpty() ? "0"
+                                : Integer.toString(Integer.parseInt(defaultValue)));
+                        return;
+                    case LONG:
+                        setAccessors("fetchLong", "saveLong", defaultValue.isEmpty() ? "0L"
+                                : Long.parseLong(defaultValue) + "L");
+                        return;
+                    case FLOAT:
+                        float floatValue = defaultValue.isEmpty() ? 0 : Float.parseFloat(defaultValue);
+                        if (Float.isNaN(floatValue) || Float.isInfinite(floatValue)) {
+                            error = "Default value of a float key must be finite";
+                            return;
+                        }
+                        setAccessors("fetchFloat", "saveFloat", floatValue + "f");
+                        return;
+                    case BOOLEAN:
+                        if (!defaultValue.isEmpty() && !defaultValue.equals("true") && !defaultValue.equals("false")) {
+                            error = "Default value of a boolean key must be true or false";
+                            return;
+                        }
+                        setAccessors("fetchBoolean", "saveBoolean", defaultValue.isEmpty() ? "false" : defaultValue);
+                        return;
+                    default:
+                        error = "Unsupported key type " + type;
+                }
+            } catch (NumberFormatException e) {
+                error = "Invalid default value \"" + defaultValue + "\" for a key of type " + type;
+            }
+        }
+
+        /**
+         * @return the primitive kind stored for the boxed types, or null for the other declared types
+         */
+        private static TypeKind getUnboxedKind(DeclaredType type) {
+            String rawName = ((TypeElement) type.asElement()).getQualifiedName().toString();
+            switch (rawName) {
+                case "java.lang.Integer":
+                    return TypeKind.INT;
+                case "java.lang.Long":
+                    return TypeKind.LONG;
+                case "java.lang.Float":
+                    return TypeKind.FLOAT;
+                case "java.lang.Boolean":
+                    return TypeKind.BOOLEAN;
+                default:
+                    return null;
+            }
+        }
+
+        private void readDeclaredType(DeclaredType type, String defaultValue) {
+            String rawName = ((TypeElement) type.asElement()).getQualifiedName().toString();
+            if (rawName.equals("java.lang.String")) {
+                isString = true;
+                setAccessors("fetchString", "saveString", defaultValue.isEmpty() ? null : ProcessorUtils.stringLiteral(defaultValue));
+            } else if (rawName.equals("java.util.Set") && type.getTypeArguments().size() == 1
+                    && type.getTypeArguments().get(0).toString().equals("java.lang.String")) {
+                if (!defaultValue.isEmpty())
+                    error = "Default values are not supported for Set<String> keys";
+                setAccessors("fetchStringSet", "saveStringSet", null);
+            } else if (!type.getTypeArguments().isEmpty()) {
+                error = "Generic types are not supported as key type, found " + type;
+            } else {
+                if (!defaultValue.isEmpty())
+                    error = "Default values are not supported for object keys";
+                isObject = true;
+                setAccessors("fetchObject", "saveObject", null);
+            }
+        }
+
+        private void setAccessors(String fetchMethod, String saveMethod, String defaultLiteral) {
+            this.fetchMethod = fetchMethod;
+            this.saveMethod = saveMethod;
+            this.defaultLiteral = defaultLiteral;
+        }
+
+        void writeAccessors(StringBuilder source) {
+            source.append("\n    @Override\n")
+                    .append("    public ").append(typeName).append(' ').append(getterName).append("() {\n");
+            if (isBoxed && !hasDefault) {
+                source.append("        if (!preferenceManager.contains(").append(constantName).append("))\n")
+                        .append("            return null;\n")
+                        .append("        return preferenceManager.").append(fetchMethod).append('(').append(constantName)
+                        .append(", ").append(defaultLiteral).append(");\n");
+            } else if (isObject) {
+                source.append("        return (").append(typeName).append(") preferenceManager.").append(fetchMethod)
+                        .append('(').append(constantName).append(", ").append(typeName).append(".class);\n");
+            } else if (isString && defaultLiteral != null) {
+                source.append("        String value = preferenceManager.").append(fetchMethod).append('(').append(constantName).append(");\n")
+                        .append("        return value != null ? value : ").append(defaultLiteral).append(";\n");
+            } else if (defaultLiteral != null && !isString) {
+                source.append("        return preferenceManager.").append(fetchMethod).append('(').append(constantName)
+                        .append(", ").append(defaultLiteral).append(");\n");
+            } else {
+                source.append("        return preferenceManager.").append(fetchMethod).append('(').append(constantName).append(");\n");
+            }
+            source.append("    }\n");
+
+            source.append("\n    public boolean set").append(propertyName).append('(').append(typeName).append(" value) {\n");
+            if (isBoxed)
+                source.append("        if (value == null)\n")
+                        .append("            return preferenceManager.removeData(").append(constantName).append(");\n");
+            source.append("        return preferenceManager.").append(saveMethod).append('(').append(constantName).append(", value);\n")
+                    .append("    }\n");
+
+            source.append("\n    public boolean remove").append(propertyName).append("() {\n")
+                    .append("        return preferenceManager.removeData(").append(constantName).append(");\n")
+                    .append("    }\n");
+        }
+
+        /**
+         * @return the getter name without the "get" or "is" prefix, starting with an upper case letter
+         */
+        private static String toPropertyName(String getterName) {
+            for (String prefix : new String[]{"get", "is"}) {
+                if (getterName.length() > prefix.length() && getterName.startsWith(prefix)
+                        && Character.isUpperCase(getterName.charAt(prefix.length())))
+                    return getterName.substring(prefix.length());
+            }
+            return Character.toUpperCase(getterName.charAt(0)) + getterName.substring(1);
+        }
+
+        private static String toConstantName(String propertyName) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < propertyName.length(); i++) {
+                char c = propertyName.charAt(i);
+                if (i > 0 && Character.isUpperCase(c) && !Character.isUpperCase(propertyName.charAt(i - 1)))
+                    name.append('_');
+                name.append(Character.toUpperCase(c));
+            }
+            return name.toString();
+        }
+    }
+}
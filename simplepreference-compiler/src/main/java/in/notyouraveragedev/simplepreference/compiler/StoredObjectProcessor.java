@@ -0,0 +1,391 @@
+package in.notyouraveragedev.simplepreference.compiler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor generating a streaming Gson TypeAdapter for every class annotated with {@code @StoredObject}.
+ * <p>
+ * The generated adapter reads and writes the fields directly using JsonReader / JsonWriter, producing the same
+ * json as the reflective adapter of Gson, so that objects stored before remain readable.
+ */
+public class StoredObjectProcessor extends AbstractProcessor {
+
+    private static final String STORED_OBJECT_ANNOTATION = "in.notyouraveragedev.simplepreference.annotation.StoredObject";
+    private static final String SERIALIZED_NAME_ANNOTATION = "com.google.gson.annotations.SerializedName";
+    /**
+     * Must match the suffix looked up by the GeneratedAdapterFactory of the library
+     */
+    private static final String GENERATED_SUFFIX = "_GsonAdapter";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(STORED_OBJECT_ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@StoredObject can only be applied to classes");
+                    continue;
+                }
+                TypeElement type = (TypeElement) element;
+                if (isValidClass(type)) {
+                    List<StoredField> fields = readFields(type);
+                    if (fields != null)
+                        generate(type, fields);
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isValidClass(TypeElement type) {
+        if (!type.getTypeParameters().isEmpty()) {
+            error(type, "@StoredObject classes must not have type parameters");
+            return false;
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "@StoredObject classes must not be abstract");
+            return false;
+        }
+        for (Element enclosing = type; enclosing.getKind() != ElementKind.PACKAGE; enclosing = enclosing.getEnclosingElement()) {
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@StoredObject classes must not be private");
+                return false;
+            }
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(type, "Nested @StoredObject classes must be static");
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+                return true;
+        }
+        error(type, "@StoredObject classes must have a constructor without parameters");
+        return false;
+    }
+
+    /**
+     * Reads the stored fields of the class and its superclasses, subclass fields first like Gson
+     *
+     * @return the fields, or null if the class is invalid, in which case errors have been reported
+     */
+    private List<StoredField> readFields(TypeElement type) {
+        Types types = processingEnv.getTypeUtils();
+        DeclaredType declaredType = (DeclaredType) type.asType();
+        String packageName = ProcessorUtils.getPackage(type).getQualifiedName().toString();
+        Map<String, StoredField> fieldsByName = new LinkedHashMap<>();
+        List<StoredField> fields = new ArrayList<>();
+        boolean isValid = true;
+
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+                    continue;
+
+                StoredField storedField = new StoredField();
+                storedField.fieldName = field.getSimpleName().toString();
+                storedField.type = types.asMemberOf(declaredType, field);
+                storedField.jsonNames = getJsonNames(field);
+                if (storedField.type.getKind() == TypeKind.TYPEVAR) {
+                    error(field, "Fields of a type parameter are not supported by @StoredObject");
+                    isValid = false;
+                    continue;
+                }
+
+                boolean isFieldAccessible = !modifiers.contains(Modifier.PRIVATE) && !modifiers.contains(Modifier.FINAL)
+                        && (modifiers.contains(Modifier.PUBLIC)
+                        || ProcessorUtils.getPackage(current).getQualifiedName().contentEquals(packageName));
+                if (!isFieldAccessible && !findAccessors(current, field, storedField)) {
+                    error(field, "Field " + storedField.fieldName + " must be accessible from package " + packageName
+                            + " or have a public getter and setter");
+                    isValid = false;
+                    continue;
+                }
+
+                for (String jsonName : storedField.jsonNames) {
+                    if (fieldsByName.containsKey(jsonName)) {
+                        error(field, type.getQualifiedName() + " declares multiple json fields named " + jsonName);
+                        isValid = false;
+                    }
+                    fieldsByName.put(jsonName, storedField);
+                }
+                fields.add(storedField);
+            }
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return isValid ? fields : null;
+    }
+
+    /**
+     * @return the json name of the field followed by its alternate names
+     */
+    private static List<String> getJsonNames(VariableElement field) {
+        List<String> names = new ArrayList<>();
+        AnnotationMirror serializedName = ProcessorUtils.findAnnotation(field, SERIALIZED_NAME_ANNOTATION);
+        if (serializedName == null) {
+            names.add(field.getSimpleName().toString());
+            return names;
+        }
+        names.add((String) ProcessorUtils.getAnnotationValue(serializedName, "value"));
+        Object alternates = ProcessorUtils.getAnnotationValue(serializedName, "alternate");
+        if (alternates instanceof List) {
+            for (Object alternate : (List<?>) alternates)
+                names.add((String) ((AnnotationValue) alternate).getValue());
+        }
+        return names;
+    }
+
+    /**
+     * Looks for a public getter and setter of the field in the class declaring it
+     *
+     * @return true if both were found, in which case they are set on the stored field
+     */
+    private boolean findAccessors(TypeElement owner, VariableElement field, StoredField storedField) {
+        String name = field.getSimpleName().toString();
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        Types types = processingEnv.getTypeUtils();
+        for (ExecutableElement method : ElementFilter.methodsIn(owner.getEnclosedElements())) {
+            if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC))
+                continue;
+            String methodName = method.getSimpleName().toString();
+            if (method.getParameters().isEmpty() && types.isSameType(method.getReturnType(), field.asType())
+                    && (methodName.equals("get" + capitalized)
+                    || (field.asType().getKind() == TypeKind.BOOLEAN && methodName.equals("is" + capitalized))))
+                storedField.getterName = methodName;
+            if (methodName.equals("set" + capitalized) && method.getParameters().size() == 1
+                    && types.isSameType(method.getParameters().get(0).asType(), field.asType()))
+                storedField.setterName = methodName;
+        }
+        return storedField.getterName != null && storedField.setterName != null;
+    }
+
+    private void generate(TypeElement type, List<StoredField> fields) {
+        String packageName = ProcessorUtils.getPackage(type).getQualifiedName().toString();
+        String className = ProcessorUtils.getFlatName(type) + GENERATED_SUFFIX;
+        String typeName = type.getQualifiedName().toString();
+
+        // one delegate adapter per distinct type that is not read and written directly
+        Map<String, String> adapterFields = new LinkedHashMap<>();
+        for (StoredField field : fields) {
+            if (!field.isDirect() && !adapterFields.containsKey(field.type.toString()))
+                adapterFields.put(field.type.toString(), "adapter" + adapterFields.size());
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty())
+            source.append("package ").append(packageName).append(";\n\n");
+        source.append("import com.google.gson.Gson;\n")
+                .append("import com.google.gson.TypeAdapter;\n")
+                .append("import com.google.gson.reflect.TypeToken;\n")
+                .append("import com.google.gson.stream.JsonReader;\n")
+                .append("import com.google.gson.stream.JsonToken;\n")
+                .append("import com.google.gson.stream.JsonWriter;\n\n")
+                .append("import java.io.IOException;\n\n");
+        source.append("/**\n")
+                .append(" * Streaming Gson TypeAdapter generated for {@link ").append(typeName).append("}, do not edit.\n")
+                .append(" */\n");
+        source.append("public final class ").append(className).append(" extends TypeAdapter<").append(typeName).append("> {\n\n");
+        for (Map.Entry<String, String> adapter : adapterFields.entrySet())
+            source.append("    private final TypeAdapter<").append(adapter.getKey()).append("> ")
+                    .append(adapter.getValue()).append(";\n");
+        if (!adapterFields.isEmpty())
+            source.append('\n');
+
+        source.append("    public ").append(className).append("(Gson gson) {\n");
+        for (Map.Entry<String, String> adapter : adapterFields.entrySet())
+            source.append("        this.").append(adapter.getValue()).append(" = gson.getAdapter(")
+                    .append(typeLiteral(adapter.getKey())).append(");\n");
+        source.append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public void write(JsonWriter out, ").append(typeName).append(" value) throws IOException {\n")
+                .append("        if (value == null) {\n")
+                .append("            out.nullValue();\n")
+                .append("            return;\n")
+                .append("        }\n")
+                .append("        out.beginObject();\n");
+        for (StoredField field : fields) {
+            source.append("        out.name(").append(ProcessorUtils.stringLiteral(field.jsonNames.get(0))).append(");\n");
+            source.append("        ").append(field.writeStatement(adapterFields.get(field.type.toString()))).append('\n');
+        }
+        source.append("        out.endObject();\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public ").append(typeName).append(" read(JsonReader in) throws IOException {\n")
+                .append("        if (in.peek() == JsonToken.NULL) {\n")
+                .append("            in.nextNull();\n")
+                .append("            return null;\n")
+                .append("        }\n")
+                .append("        ").append(typeName).append(" value = new ").append(typeName).append("();\n")
+                .append("        in.beginObject();\n")
+                .append("        while (in.hasNext()) {\n")
+                .append("            String name = in.nextName();\n")
+                .append("            if (in.peek() == JsonToken.NULL) {\n")
+                .append("                in.nextNull();\n")
+                .append("                setNull(value, name);\n")
+                .append("                continue;\n")
+                .append("            }\n")
+                .append("            switch (name) {\n");
+        for (StoredField field : fields) {
+            for (String jsonName : field.jsonNames)
+                source.append("                case ").append(ProcessorUtils.stringLiteral(jsonName)).append(":\n");
+            source.append("                    ").append(field.assignStatement(field.readExpression(adapterFields.get(field.type.toString()))))
+                    .append('\n')
+                    .append("                    break;\n");
+        }
+        source.append("                default:\n")
+                .append("                    in.skipValue();\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("        in.endObject();\n")
+                .append("        return value;\n")
+                .append("    }\n\n");
+
+        // like Gson, a json null leaves primitive fields untouched and sets the other fields to null
+        source.append("    private static void setNull(").append(typeName).append(" value, String name) {\n")
+                .append("        switch (name) {\n");
+        for (StoredField field : fields) {
+            if (field.type.getKind().isPrimitive())
+                continue;
+            for (String jsonName : field.jsonNames)
+                source.append("            case ").append(ProcessorUtils.stringLiteral(jsonName)).append(":\n");
+            source.append("                ").append(field.assignStatement("null")).append('\n')
+                    .append("                break;\n");
+        }
+        source.append("        }\n")
+                .append("    }\n")
+                .append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try {
+            ProcessorUtils.writeSource(processingEnv.getFiler(), qualifiedName, type, source.toString());
+        } catch (IOException e) {
+            error(type, "Could not write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the class literal, or a TypeToken for parameterized types
+     */
+    private static String typeLiteral(String typeName) {
+        if (typeName.indexOf('<') < 0)
+            return typeName + ".class";
+        return "new TypeToken<" + typeName + ">() {}";
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * A stored field, along with the code to read and write it
+     */
+    private static class StoredField {
+        private String fieldName;
+        private TypeMirror type;
+        private List<String> jsonNames;
+        private String getterName;
+        private String setterName;
+
+        /**
+         * @return true if the field is read and written without a delegate adapter
+         */
+        boolean isDirect() {
+            return type.getKind().isPrimitive() || type.toString().equals("java.lang.String");
+        }
+
+        String valueExpression() {
+            return getterName != null ? "value." + getterName + "()" : "value." + fieldName;
+        }
+
+        String assignStatement(String expression) {
+            return setterName != null ? "value." + setterName + "(" + expression + ");"
+                    : "value." + fieldName + " = " + expression + ";";
+        }
+
+        String writeStatement(String adapter) {
+            String value = valueExpression();
+            switch (type.getKind()) {
+                case FLOAT:
+                    // written as a Number, like Gson, so that 1.1f is not written as 1.100000023841858
+                    return "out.value(Float.valueOf(" + value + "));";
+                case CHAR:
+                    return "out.value(String.valueOf(" + value + "));";
+                case BOOLEAN:
+                case BYTE:
+                case SHORT:
+                case INT:
+                case LONG:
+                case DOUBLE:
+                    return "out.value(" + value + ");";
+                default:
+                    if (type.toString().equals("java.lang.String"))
+                        return "out.value(" + value + ");";
+                    return adapter + ".write(out, " + value + ");";
+            }
+        }
+
+        String readExpression(String adapter) {
+            switch (type.getKind()) {
+                case BOOLEAN:
+                    return "in.nextBoolean()";
+                case BYTE:
+                    return "(byte) in.nextInt()";
+                case SHORT:
+                    return "(short) in.nextInt()";
+                case INT:
+                    return "in.nextInt()";
+                case LONG:
+                    return "in.nextLong()";
+                case FLOAT:
+                    return "(float) in.nextDouble()";
+                case DOUBLE:
+                    return "in.nextDouble()";
+                case CHAR:
+                    return "in.nextString().charAt(0)";
+                default:
+                    if (type.toString().equals("java.lang.String"))
+                        return "in.peek() == JsonToken.BOOLEAN ? Boolean.toString(in.nextBoolean()) : in.nextString()";
+                    return adapter + ".read(in)";
+            }
+        }
+    }
+}
@@ -0,0 +1,5 @@
+# Adapters generated for @StoredObject classes are looked up by the name of the stored class
+-keepnames @in.notyouraveragedev.simplepreference.annotation.StoredObject class *
+-keep class **_GsonAdapter {
+    public <init>(com.google.gson.Gson);
+}
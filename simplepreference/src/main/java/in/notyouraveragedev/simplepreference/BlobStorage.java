@@ -0,0 +1,350 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Storage decorator writing String values longer than a threshold into separate blob files,
+ * keeping only a short reference to the blob in the underlying storage.
+ * <p>
+ * The underlying storage stays small, so its commits and loads do not pay for the large values,
+ * which are only read when they are fetched. Blobs are written into a temporary file and renamed before
+ * the reference is committed, and superseded blobs are deleted once the new references are committed.
+ * <p>
+ * A failed commit may still have updated the values held in memory, as the Android storage does, so it keeps
+ * both the blobs it wrote and the ones it would have superseded. The blobs left unreferenced are deleted
+ * after the next successful commit.
+ */
+class BlobStorage implements SharedPreferences {
+
+    /**
+     * Prefix of the references stored in the underlying storage. Values starting with it are always
+     * written as blobs, so that they are never mistaken for a reference.
+     */
+    private static final String REFERENCE_PREFIX = "\uFDD0blob:";
+    private static final String BLOB_SUFFIX = ".blob";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SharedPreferences storage;
+    private final File directory;
+    private final int thresholdLength;
+    /**
+     * Whether a failed commit may have left unreferenced blobs, guarded by this
+     */
+    private boolean hasOrphanBlobs;
+
+    BlobStorage(SharedPreferences storage, File directory, int thresholdLength) {
+        this.storage = storage;
+        this.directory = directory;
+        this.thresholdLength = thresholdLength;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>(storage.getAll());
+        for (Map.Entry<String, Object> entry : all.entrySet()) {
+            if (isReference(entry.getValue()))
+                entry.setValue(readBlob((String) entry.getValue()));
+        }
+        return all;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = storage.getString(key, null);
+        if (value == null)
+            return defValue;
+        if (isReference(value)) {
+            String blob = readBlob(value);
+            return blob != null ? blob : defValue;
+        }
+        return value;
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return storage.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return storage.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return storage.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return storage.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return storage.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return storage.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new BlobEditor(storage.edit());
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        storage.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        storage.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    private static boolean isReference(Object value) {
+        return value instanceof String && ((String) value).startsWith(REFERENCE_PREFIX);
+    }
+
+    /**
+     * Returns the blob file name referenced by the stored value of the key
+     *
+     * @return the blob file name, or null if the key does not hold a reference
+     */
+    private String getReferencedBlob(String key) {
+        Object value;
+        try {
+            value = storage.getString(key, null);
+        } catch (ClassCastException e) {
+            // the key holds a value of another type
+            return null;
+        }
+        return isReference(value) ? ((String) value).substring(REFERENCE_PREFIX.length()) : null;
+    }
+
+    /**
+     * @return the content of the referenced blob, or null if the blob is missing
+     */
+    private String readBlob(String reference) {
+        File blob = new File(directory, reference.substring(REFERENCE_PREFIX.length()));
+        try {
+            InputStream in = new FileInputStream(blob);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) blob.length());
+                byte[] chunk = new byte[8192];
+                int read;
+                while ((read = in.read(chunk)) != -1)
+                    bytes.write(chunk, 0, read);
+                return new String(bytes.toByteArray(), UTF_8);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the value into a new blob file, using a temporary file and a rename,
+     * so that the blob is either complete or absent
+     *
+     * @return the name of the blob file
+     */
+    private String writeBlob(String value) throws IOException {
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Could not create directory " + directory);
+        String name = UUID.randomUUID().toString() + BLOB_SUFFIX;
+        File temporaryFile = new File(directory, name + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporaryFile);
+        try {
+            out.write(value.getBytes(UTF_8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temporaryFile.renameTo(new File(directory, name))) {
+            temporaryFile.delete();
+            throw new IOException("Could not rename " + temporaryFile);
+        }
+        return name;
+    }
+
+    private void deleteBlobs(Iterable<String> names) {
+        for (String name : names)
+            new File(directory, name).delete();
+    }
+
+    /**
+     * Deletes the blob files not referenced by any stored value
+     */
+    private void deleteOrphanBlobs() {
+        Set<String> referencedBlobs = new HashSet<>();
+        for (Object value : storage.getAll().values()) {
+            if (isReference(value))
+                referencedBlobs.add(((String) value).substring(REFERENCE_PREFIX.length()));
+        }
+        deleteBlobsExcept(referencedBlobs);
+    }
+
+    /**
+     * Deletes every blob file except the specified ones, including the leftovers of interrupted commits
+     */
+    private void deleteBlobsExcept(Set<String> names) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (!names.contains(file.getName()))
+                file.delete();
+        }
+    }
+
+    /**
+     * Editor holding the large values until the commit, at which point they are written as blobs
+     */
+    private class BlobEditor implements Editor {
+        private final Editor editor;
+        private final Map<String, String> blobValues = new LinkedHashMap<>();
+        private final Set<String> changedKeys = new HashSet<>();
+        private boolean clear = false;
+
+        BlobEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            changedKeys.add(key);
+            if (value != null && (value.length() > thresholdLength || value.startsWith(REFERENCE_PREFIX))) {
+                blobValues.put(key, value);
+            } else {
+                blobValues.remove(key);
+                editor.putString(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            changed(key);
+            editor.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            changed(key);
+            editor.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            changed(key);
+            editor.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            changed(key);
+            editor.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            changed(key);
+            editor.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changed(key);
+            editor.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            editor.clear();
+            return this;
+        }
+
+        private void changed(String key) {
+            changedKeys.add(key);
+            blobValues.remove(key);
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (BlobStorage.this) {
+                List<String> writtenBlobs = new ArrayList<>();
+                try {
+                    for (Map.Entry<String, String> entry : blobValues.entrySet()) {
+                        String name = writeBlob(entry.getValue());
+                        writtenBlobs.add(name);
+                        editor.putString(entry.getKey(), REFERENCE_PREFIX + name);
+                    }
+                } catch (IOException e) {
+                    deleteBlobs(writtenBlobs);
+                    return false;
+                }
+
+                List<String> supersededBlobs = new ArrayList<>();
+                if (!clear) {
+                    for (String key : changedKeys) {
+                        String blob = getReferencedBlob(key);
+                        if (blob != null)
+                            supersededBlobs.add(blob);
+                    }
+                }
+
+                if (!editor.commit()) {
+                    // the values in memory may reference either the written or the superseded blobs
+                    hasOrphanBlobs = true;
+                    return false;
+                }
+                if (clear) {
+                    deleteBlobsExcept(new HashSet<>(writtenBlobs));
+                    hasOrphanBlobs = false;
+                } else if (hasOrphanBlobs) {
+                    deleteOrphanBlobs();
+                    hasOrphanBlobs = false;
+                } else {
+                    deleteBlobs(supersededBlobs);
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Commits synchronously, since superseded blobs may only be deleted once the new references are stored
+         */
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import in.notyouraveragedev.simplepreference.metrics.Operation;
+
+/**
+ * Keys sharing a prefix, for example "cache.", whose number of entries and stored size are bounded, so that the
+ * Shared Preference File can be used as a disk cache. Obtained using {@link SimplePreferenceManager#boundedNamespace(String)}.
+ * <p>
+ * The keys are given without the prefix. Every save and fetch marks the key as the most recently used, and once a
+ * save exceeds a limit the least recently used keys are removed in the same commit as the saved value.
+ * The order of use is kept in memory: the keys stored before the namespace is first used are considered
+ * less recently used than any key used since, in the ascending order of the keys.
+ * <p>
+ * The size of an entry is the length in bytes of its key and value encoded in UTF-8, values stored under
+ * the prefix by other means than the namespace are counted once noticed.
+ */
+public final class BoundedNamespace {
+
+    /**
+     * Counted size of values other than Strings and Sets of Strings
+     */
+    private static final int PRIMITIVE_SIZE = 8;
+    /**
+     * Queued in place of the key when the storage is cleared, compared by identity
+     */
+    private static final String CLEARED = new String("cleared");
+
+    private final SimplePreferenceManager manager;
+    private final String prefix;
+
+    /**
+     * Size of every entry of the namespace, by stored key, in order of use
+     */
+    private final LinkedHashMap<String, Integer> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile boolean isLoaded;
+    private long storedBytes;
+    private long evictedCount;
+    private int maxEntries = Integer.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+
+    /**
+     * Keys of the namespace changed in the storage, checked on the next use of the namespace
+     */
+    private final Queue<String> changedKeys = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Queues the keys of the namespace removed or added elsewhere, for example by the sweep of the expired data,
+     * without taking the lock of the namespace, which is held while committing.
+     * Kept as a strong reference, since SharedPreferences only keeps a weak reference to it
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener storageListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (!isLoaded)
+                        return;
+                    if (key == null)
+                        changedKeys.add(CLEARED);
+                    else if (key.startsWith(prefix))
+                        changedKeys.add(key);
+                }
+            };
+
+    BoundedNamespace(SimplePreferenceManager manager, String prefix) {
+        this.manager = manager;
+        this.prefix = prefix;
+        manager.registerStorageListener(storageListener);
+    }
+
+    /**
+     * @return the prefix of the stored keys of the namespace
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Limits the number of entries of the namespace, removing the least recently used entries right away
+     * if the namespace holds more
+     *
+     * @param maxEntries the maximum number of entries
+     * @return the BoundedNamespace
+     */
+    public BoundedNamespace withMaxEntries(int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        synchronized (this) {
+            this.maxEntries = maxEntries;
+        }
+        trim();
+        return this;
+    }
+
+    /**
+     * Limits the stored size of the namespace, removing the least recently used entries right away
+     * if the namespace holds more
+     *
+     * @param maxBytes the maximum size of the keys and values of the namespace encoded in UTF-8
+     * @return the BoundedNamespace
+     */
+    public BoundedNamespace withMaxBytes(long maxBytes) {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("maxBytes must be positive");
+        synchronized (this) {
+            this.maxBytes = maxBytes;
+        }
+        trim();
+        return this;
+    }
+
+    /**
+     * Method to store String data into the namespace, removing the least recently used entries if a limit
+     * is exceeded.
+     *
+     * @param key   the key against which data needs to be stored, without the prefix
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, false if it could not be stored or is larger than the size limit
+     */
+    public boolean saveString(String key, String value) {
+        return save(key, value, 0, null, Operation.SAVE_STRING);
+    }
+
+    /**
+     * Method to store String data into the namespace, which expires once the time to live has elapsed.
+     * Needs expiry support enabled using {@link SimplePreferenceManager.SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @see #saveString(String, String)
+     */
+    public boolean saveString(String key, String value, long timeToLive, TimeUnit unit) {
+        return save(key, value, timeToLive, unit, Operation.SAVE_STRING);
+    }
+
+    /**
+     * method to fetch String data stored in the namespace, marking the key as the most recently used.
+     *
+     * @param key the key against which data needs to be fetched, without the prefix
+     * @return the data stored against the specified key
+     */
+    public String fetchString(String key) {
+        String storedKey = prefix + key;
+        String value = manager.fetchString(storedKey);
+        onRead(storedKey, value);
+        return value;
+    }
+
+    /**
+     * Method to save objects into the namespace, removing the least recently used entries if a limit is exceeded.
+     *
+     * @param key   the key against which data needs to be stored, without the prefix
+     * @param value the object to be saved
+     * @return true is object was saved successfully, false if it could not be saved or is larger than the size limit
+     */
+    public boolean saveObject(String key, Object value) throws UnsupportedOperationException {
+        return saveObject(key, value, 0, null);
+    }
+
+    /**
+     * Method to save objects into the namespace, which expire once the time to live has elapsed.
+     * Needs expiry support enabled using {@link SimplePreferenceManager.SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @see #saveObject(String, Object)
+     */
+    public boolean saveObject(String key, Object value, long timeToLive, TimeUnit unit) throws UnsupportedOperationException {
+        manager.checkObjectSupport();
+        if (!(value instanceof Serializable))
+            throw new UnsupportedOperationException("Only Serializable objects can be saved in SharedPreferences");
+        String storedKey = prefix + key;
+        return save(key, manager.encodeObject(storedKey, value), timeToLive, unit, Operation.SAVE_OBJECT);
+    }
+
+    /**
+     * Fetches the object stored in the namespace, marking the key as the most recently used.
+     *
+     * @param key         the key against which object needs to be fetched, without the prefix
+     * @param targetClass the Class to which the object belongs to
+     * @return the object stored against the specified key, or null
+     */
+    public Object fetchObject(String key, Class<?> targetClass) throws UnsupportedOperationException {
+        String storedKey = prefix + key;
+        Object value = manager.fetchObject(storedKey, targetClass);
+        onRead(storedKey, value);
+        return value;
+    }
+
+    /**
+     * Method to check whether there is any data stored against the specified key, without marking it as used
+     *
+     * @param key the key to be checked, without the prefix
+     * @return true if some data is present against the specified key, otherwise returns false
+     */
+    public boolean contains(String key) {
+        return manager.contains(prefix + key);
+    }
+
+    /**
+     * Removes the data stored against the specified key
+     *
+     * @param key the key against which data needs to be removed, without the prefix
+     * @return true if data was removed successfully, otherwise returns false
+     */
+    public boolean removeData(String key) {
+        String storedKey = prefix + key;
+        synchronized (this) {
+            ensureLoaded();
+            boolean isRemoved = manager.removeData(storedKey);
+            if (isRemoved)
+                removeEntry(storedKey);
+            return isRemoved;
+        }
+    }
+
+    /**
+     * Removes all the data of the namespace using a single commit
+     *
+     * @return true if the data was removed successfully, otherwise returns false
+     */
+    public boolean removeAll() {
+        synchronized (this) {
+            boolean isRemoved = manager.removeAllWithPrefix(prefix);
+            if (isRemoved) {
+                entrySizes.clear();
+                storedBytes = 0;
+            }
+            return isRemoved;
+        }
+    }
+
+    /**
+     * @return the number of entries of the namespace
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return entrySizes.size();
+    }
+
+    /**
+     * @return the size of the keys and values of the namespace encoded in UTF-8
+     */
+    public synchronized long getStoredBytes() {
+        ensureLoaded();
+        return storedBytes;
+    }
+
+    /**
+     * @return the number of entries removed to keep the namespace within its limits
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Removes the least recently used entries until the namespace is within its limits, using a single commit
+     *
+     * @return true if the entries were removed successfully or the namespace is within its limits
+     */
+    public boolean trim() {
+        synchronized (this) {
+            ensureLoaded();
+            List<String> evictedKeys = selectEvictedKeys(null, 0);
+            if (evictedKeys.isEmpty())
+                return true;
+            boolean isRemoved = manager.removeKeys(evictedKeys);
+            if (isRemoved)
+                evict(evictedKeys);
+            return isRemoved;
+        }
+    }
+
+    private boolean save(String key, String value, long timeToLive, TimeUnit unit, Operation operation) {
+        if (value == null)
+            return removeData(key);
+        String storedKey = prefix + key;
+        int size = utf8Length(storedKey) + utf8Length(value);
+        synchronized (this) {
+            ensureLoaded();
+            if (size > maxBytes)
+                return false;
+            List<String> evictedKeys = selectEvictedKeys(storedKey, size);
+            boolean isSaved = manager.saveEvicting(storedKey, value, timeToLive, unit, evictedKeys, operation);
+            if (isSaved) {
+                evict(evictedKeys);
+                removeEntry(storedKey);
+                addEntry(storedKey, size);
+            }
+            return isSaved;
+        }
+    }
+
+    /**
+     * Selects the least recently used keys to remove so that the namespace stays within its limits
+     * once the key is saved with the given size
+     *
+     * @param savedKey the key being saved, which replaces its current entry, or null
+     */
+    private List<String> selectEvictedKeys(String savedKey, int savedSize) {
+        Integer replacedSize = savedKey == null ? null : entrySizes.get(savedKey);
+        int entries = entrySizes.size() + (savedKey != null && replacedSize == null ? 1 : 0);
+        long bytes = storedBytes + savedSize - (replacedSize != null ? replacedSize : 0);
+        if (entries <= maxEntries && bytes <= maxBytes)
+            return Collections.emptyList();
+        List<String> evictedKeys = new ArrayList<>();
+        // iterating does not change the order of use, unlike get
+        Iterator<Map.Entry<String, Integer>> iterator = entrySizes.entrySet().iterator();
+        while ((entries > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            Map.Entry<String, Integer> eldest = iterator.next();
+            if (eldest.getKey().equals(savedKey))
+                continue;
+            evictedKeys.add(eldest.getKey());
+            entries--;
+            bytes -= eldest.getValue();
+        }
+        return evictedKeys;
+    }
+
+    private void evict(List<String> evictedKeys) {
+        for (String evictedKey : evictedKeys)
+            removeEntry(evictedKey);
+        evictedCount += evictedKeys.size();
+    }
+
+    private void addEntry(String storedKey, int size) {
+        entrySizes.put(storedKey, size);
+        storedBytes += size;
+    }
+
+    private void removeEntry(String storedKey) {
+        Integer size = entrySizes.remove(storedKey);
+        if (size != null)
+            storedBytes -= size;
+    }
+
+    /**
+     * Marks the key as the most recently used, or drops it if it is gone
+     */
+    private synchronized void onRead(String storedKey, Object value) {
+        if (!isLoaded)
+            return;
+        if (value == null)
+            removeEntry(storedKey);
+        else if (entrySizes.get(storedKey) == null)
+            addEntry(storedKey, utf8Length(storedKey) + sizeOf(value instanceof String ? value : manager.fetchString(storedKey)));
+    }
+
+    /**
+     * Reads the keys stored under the prefix along with their sizes on first use, then applies the changes
+     * made in the storage since the last use
+     */
+    private void ensureLoaded() {
+        String key;
+        while ((key = changedKeys.poll()) != null) {
+            if (key == CLEARED) {
+                // loaded again below
+                entrySizes.clear();
+                storedBytes = 0;
+                isLoaded = false;
+                changedKeys.clear();
+            } else if (!manager.isStored(key)) {
+                removeEntry(key);
+            } else if (!entrySizes.containsKey(key)) {
+                addEntry(key, utf8Length(key) + sizeOf(manager.fetchStoredValue(key)));
+            }
+        }
+        if (isLoaded)
+            return;
+        for (Map.Entry<String, ?> entry : manager.fetchAllWithPrefix(prefix).entrySet())
+            addEntry(entry.getKey(), utf8Length(entry.getKey()) + sizeOf(entry.getValue()));
+        isLoaded = true;
+    }
+
+    private static int sizeOf(Object value) {
+        if (value == null)
+            return 0;
+        if (value instanceof String)
+            return utf8Length((String) value);
+        if (value instanceof Set) {
+            int size = 0;
+            for (Object element : (Set<?>) value)
+                size += utf8Length(String.valueOf(element));
+            return size;
+        }
+        return PRIMITIVE_SIZE;
+    }
+
+    /**
+     * Returns the length of the String encoded in UTF-8, without encoding it
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,52 @@
+package in.notyouraveragedev.simplepreference;
+
+/**
+ * Snapshot of the counters of a cache maintained by SimplePreferenceManager
+ */
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final int size;
+    private final int maxSize;
+
+    CacheStats(long hitCount, long missCount, int size, int maxSize) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the ratio of hits to lookups, 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", size=" + size +
+                ", maxSize=" + maxSize +
+                '}';
+    }
+}
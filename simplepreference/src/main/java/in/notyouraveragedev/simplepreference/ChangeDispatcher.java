@@ -0,0 +1,177 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single change listener of the storage, dispatching the changes to the subscribers of the changed key only,
+ * so that a change costs O(subscribers of the key) instead of O(all the observers).
+ * <p>
+ * Dispatching is lock free, subscribing and unsubscribing lock the dispatcher to keep the map free of
+ * empty subscriber lists.
+ */
+class ChangeDispatcher implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private final ConcurrentHashMap<String, List<Subscriber<?>>> subscribers = new ConcurrentHashMap<>();
+
+    synchronized void add(Subscriber<?> subscriber) {
+        List<Subscriber<?>> keySubscribers = subscribers.get(subscriber.key);
+        if (keySubscribers == null) {
+            keySubscribers = new CopyOnWriteArrayList<>();
+            subscribers.put(subscriber.key, keySubscribers);
+        }
+        keySubscribers.add(subscriber);
+    }
+
+    synchronized void remove(Subscriber<?> subscriber) {
+        List<Subscriber<?>> keySubscribers = subscribers.get(subscriber.key);
+        if (keySubscribers != null && keySubscribers.remove(subscriber) && keySubscribers.isEmpty())
+            subscribers.remove(subscriber.key);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // key is null when the preferences were cleared, which changes every observed key
+        if (key == null) {
+            for (List<Subscriber<?>> keySubscribers : subscribers.values())
+                dispatch(keySubscribers);
+            return;
+        }
+        List<Subscriber<?>> keySubscribers = subscribers.get(key);
+        if (keySubscribers != null)
+            dispatch(keySubscribers);
+    }
+
+    private static void dispatch(List<Subscriber<?>> keySubscribers) {
+        for (Subscriber<?> subscriber : keySubscribers)
+            subscriber.onChanged();
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SimplePreference-Debounce");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // every change of a burst cancels the previous delivery, do not keep the cancelled ones queued
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Observer of a single key along with its debounce and distinct state
+     */
+    static final class Subscriber<T> implements PreferenceSubscription, Runnable {
+
+        private final ChangeDispatcher dispatcher;
+        private final SimplePreferenceManager manager;
+        private final String key;
+        private final Class<T> type;
+        private final PreferenceObserver<T> observer;
+        private final long debounceMillis;
+        private final boolean isDistinctUntilChanged;
+        private final Executor executor;
+        private volatile boolean isSubscribed = true;
+        private ScheduledFuture<?> pendingDelivery;
+        private T lastValue;
+
+        Subscriber(ChangeDispatcher dispatcher, SimplePreferenceManager manager, String key, Class<T> type,
+                   PreferenceObserver<T> observer, long debounceMillis, boolean isDistinctUntilChanged, Executor executor) {
+            this.dispatcher = dispatcher;
+            this.manager = manager;
+            this.key = key;
+            this.type = type;
+            this.observer = observer;
+            this.debounceMillis = debounceMillis;
+            this.isDistinctUntilChanged = isDistinctUntilChanged;
+            this.executor = executor;
+            if (isDistinctUntilChanged)
+                lastValue = manager.readObservedValue(key, type);
+        }
+
+        void onChanged() {
+            if (!isSubscribed)
+                return;
+            if (debounceMillis == 0) {
+                deliver();
+                return;
+            }
+            synchronized (this) {
+                if (pendingDelivery != null)
+                    pendingDelivery.cancel(false);
+                pendingDelivery = getScheduler().schedule(this, debounceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Runs the debounced delivery
+         */
+        @Override
+        public void run() {
+            synchronized (this) {
+                pendingDelivery = null;
+            }
+            deliver();
+        }
+
+        private void deliver() {
+            final T value = manager.readObservedValue(key, type);
+            if (isDistinctUntilChanged) {
+                synchronized (this) {
+                    if (value == null ? lastValue == null : value.equals(lastValue))
+                        return;
+                    lastValue = value;
+                }
+            }
+            if (executor == null) {
+                notifyObserver(value);
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifyObserver(value);
+                }
+            });
+        }
+
+        private void notifyObserver(T value) {
+            if (isSubscribed)
+                observer.onChanged(key, value);
+        }
+
+        @Override
+        public void unsubscribe() {
+            if (!isSubscribed)
+                return;
+            isSubscribed = false;
+            synchronized (this) {
+                if (pendingDelivery != null) {
+                    pendingDelivery.cancel(false);
+                    pendingDelivery = null;
+                }
+            }
+            dispatcher.remove(this);
+        }
+
+        @Override
+        public boolean isSubscribed() {
+            return isSubscribed;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import in.notyouraveragedev.simplepreference.codec.Base64Coder;
+
+/**
+ * Storage decorator compressing String values longer than a threshold using Deflate.
+ * <p>
+ * Compressed values are stored as a marker followed by the Base64 of the compressed bytes, so values written
+ * without compression are still read as they are. A value is only stored compressed if that makes it shorter.
+ */
+class CompressedStorage implements SharedPreferences {
+
+    /**
+     * Prefix of the compressed values. Values starting with it are always compressed,
+     * so that they are never mistaken for a compressed value.
+     */
+    private static final String COMPRESSED_PREFIX = "\uFDD0zip:";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SharedPreferences storage;
+    private final int thresholdLength;
+
+    private long compressedCount;
+    private long skippedCount;
+    private long originalLength;
+    private long compressedLength;
+
+    CompressedStorage(SharedPreferences storage, int thresholdLength) {
+        this.storage = storage;
+        this.thresholdLength = thresholdLength;
+    }
+
+    synchronized CompressionStats getStats() {
+        return new CompressionStats(compressedCount, skippedCount, originalLength, compressedLength);
+    }
+
+    private synchronized void recordCompressed(int original, int compressed) {
+        compressedCount++;
+        originalLength += original;
+        compressedLength += compressed;
+    }
+
+    private synchronized void recordSkipped() {
+        skippedCount++;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>(storage.getAll());
+        for (Map.Entry<String, Object> entry : all.entrySet()) {
+            if (isCompressed(entry.getValue()))
+                entry.setValue(decompress((String) entry.getValue()));
+        }
+        return all;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = storage.getString(key, null);
+        if (value == null)
+            return defValue;
+        return isCompressed(value) ? decompress(value) : value;
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return storage.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return storage.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return storage.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return storage.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return storage.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return storage.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new CompressingEditor(storage.edit());
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        storage.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        storage.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    private static boolean isCompressed(Object value) {
+        return value instanceof String && ((String) value).startsWith(COMPRESSED_PREFIX);
+    }
+
+    /**
+     * Returns the value to be stored for the specified value, compressed if that makes it shorter
+     */
+    private String compressIfSmaller(String value) {
+        if (value == null || (value.length() <= thresholdLength && !value.startsWith(COMPRESSED_PREFIX)))
+            return value;
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(value.getBytes(UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished())
+                bytes.write(chunk, 0, deflater.deflate(chunk));
+            String compressed = COMPRESSED_PREFIX + Base64Coder.encode(bytes.toByteArray());
+
+            // values starting with the prefix are stored compressed even if that makes them longer
+            if (compressed.length() >= value.length() && !value.startsWith(COMPRESSED_PREFIX)) {
+                recordSkipped();
+                return value;
+            }
+            recordCompressed(value.length(), compressed.length());
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String decompress(String value) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(Base64Coder.decode(value.substring(COMPRESSED_PREFIX.length())));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() * 4);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(chunk);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IllegalStateException("Truncated compressed value");
+                bytes.write(chunk, 0, length);
+            }
+            return new String(bytes.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Editor compressing the String values as they are put
+     */
+    private class CompressingEditor implements Editor {
+        private final Editor editor;
+
+        CompressingEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            editor.putString(key, compressIfSmaller(value));
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            editor.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            editor.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            editor.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            editor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return editor.commit();
+        }
+
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package in.notyouraveragedev.simplepreference;
+
+/**
+ * Snapshot of the counters of the value compression enabled using
+ * {@link SimplePreferenceManager.SimplePreferenceManagerBuilder#withCompression(int)}
+ */
+public final class CompressionStats {
+    private final long compressedCount;
+    private final long skippedCount;
+    private final long originalLength;
+    private final long compressedLength;
+
+    CompressionStats(long compressedCount, long skippedCount, long originalLength, long compressedLength) {
+        this.compressedCount = compressedCount;
+        this.skippedCount = skippedCount;
+        this.originalLength = originalLength;
+        this.compressedLength = compressedLength;
+    }
+
+    /**
+     * @return the number of values stored compressed
+     */
+    public long getCompressedCount() {
+        return compressedCount;
+    }
+
+    /**
+     * @return the number of values above the threshold stored uncompressed, since compressing did not make them shorter
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return the total length in characters of the values stored compressed, before compression
+     */
+    public long getOriginalLength() {
+        return originalLength;
+    }
+
+    /**
+     * @return the total length in characters of the values stored compressed, after compression
+     */
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    /**
+     * @return the ratio of the compressed length to the original length, 1 if nothing was compressed
+     */
+    public double getCompressionRatio() {
+        return originalLength == 0 ? 1 : (double) compressedLength / originalLength;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{" +
+                "compressedCount=" + compressedCount +
+                ", skippedCount=" + skippedCount +
+                ", originalLength=" + originalLength +
+                ", compressedLength=" + compressedLength +
+                '}';
+    }
+}
@@ -0,0 +1,558 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import in.notyouraveragedev.simplepreference.codec.Base64Coder;
+
+/**
+ * Storage decorator encrypting every value using AES-GCM.
+ * <p>
+ * Every value is encrypted on its own with a random IV, using the stored key name as associated data so that
+ * an encrypted value cannot be moved to another key, and is stored as a marker followed by the Base64 of the
+ * IV and the ciphertext. The plaintext starts with the type of the value, so that int, long, float, boolean
+ * and Set values keep their type. Only the values put into an editor are encrypted, and values stored before
+ * encryption was enabled are still read as they are.
+ * <p>
+ * Creating a Cipher is far more expensive than using one, so every thread keeps its own Cipher and Mac,
+ * initialized again for every value. The last decrypted values of the most recently read keys are kept along
+ * with their ciphertext, so a value is only decrypted again once it changed or was evicted, and reads of these
+ * keys cost about as much as in plain mode. The cache is bounded, since it keeps the values in clear on the heap,
+ * and can be disabled.
+ * <p>
+ * When key names are hashed, keys are stored as a truncated HMAC-SHA256 of the name, using a key derived from
+ * the encryption key, and the name is stored inside the encrypted value so that {@link #getAll()} and the
+ * change listeners still report the names.
+ */
+class EncryptedStorage implements SharedPreferences {
+
+    /**
+     * Prefix of the encrypted values
+     */
+    private static final String ENCRYPTED_PREFIX = "\uFDD0aes:";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final int HASHED_KEY_LENGTH = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Default number of decrypted values cached
+     */
+    static final int DEFAULT_DECRYPTED_CACHE_SIZE = 64;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private static final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES-GCM is not available", e);
+            }
+        }
+    };
+
+    private final SharedPreferences storage;
+    private final SecretKey key;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Mac> macs;
+    /**
+     * Names of the hashed keys, learned from the keys used and the values decrypted
+     */
+    private final Map<String, String> keyNames;
+    /**
+     * Hashed keys of the names used, so that every name is only hashed once
+     */
+    private final Map<String, String> hashedKeys;
+    /**
+     * Last decrypted values of the most recently read stored keys, reused as long as the stored ciphertext
+     * did not change, guarded by itself. Null if caching is disabled
+     */
+    private final Map<String, Plaintext> decrypted;
+    private final Set<OnSharedPreferenceChangeListener> listeners =
+            Collections.newSetFromMap(new WeakHashMap<OnSharedPreferenceChangeListener, Boolean>());
+
+    /**
+     * Registered on the storage once the first listener is registered, translating the stored keys.
+     * Kept as a strong reference, since SharedPreferences only keeps a weak reference to it
+     */
+    private OnSharedPreferenceChangeListener storageListener;
+
+    EncryptedStorage(SharedPreferences storage, SecretKey key, boolean hashKeyNames, final int decryptedCacheSize) {
+        this.storage = storage;
+        this.key = key;
+        if (decryptedCacheSize > 0) {
+            this.decrypted = new LinkedHashMap<String, Plaintext>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Plaintext> eldest) {
+                    return size() > decryptedCacheSize;
+                }
+            };
+        } else {
+            this.decrypted = null;
+        }
+        if (hashKeyNames) {
+            byte[] encodedKey = key.getEncoded();
+            if (encodedKey == null)
+                throw new IllegalArgumentException("Hashing key names needs a key whose bytes are accessible");
+            final SecretKeySpec macKey = new SecretKeySpec(deriveMacKey(encodedKey), MAC_ALGORITHM);
+            this.macs = new ThreadLocal<Mac>() {
+                @Override
+                protected Mac initialValue() {
+                    try {
+                        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                        mac.init(macKey);
+                        return mac;
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException("HMAC-SHA256 is not available", e);
+                    }
+                }
+            };
+            this.keyNames = new ConcurrentHashMap<>();
+            this.hashedKeys = new ConcurrentHashMap<>();
+        } else {
+            this.macs = null;
+            this.keyNames = null;
+            this.hashedKeys = null;
+        }
+        try {
+            // fails early if the key is not usable for AES-GCM, with a random IV since GCM refuses reusing one
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            ciphers.get().init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("The key cannot be used for AES-GCM encryption", e);
+        }
+    }
+
+    /**
+     * Derives the key hashing the key names from the encryption key, so that the same key is not used by
+     * two algorithms
+     */
+    private static byte[] deriveMacKey(byte[] encodedKey) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(encodedKey, MAC_ALGORITHM));
+            return mac.doFinal("simplepreference key names".getBytes(UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    /**
+     * Returns the key under which the value of the key name is stored
+     */
+    private String storedKey(String name) {
+        if (macs == null || name == null)
+            return name;
+        String storedKey = hashedKeys.get(name);
+        if (storedKey != null)
+            return storedKey;
+        byte[] hash = macs.get().doFinal(name.getBytes(UTF_8));
+        byte[] truncated = new byte[HASHED_KEY_LENGTH];
+        System.arraycopy(hash, 0, truncated, 0, HASHED_KEY_LENGTH);
+        storedKey = Base64Coder.encode(truncated);
+        keyNames.put(storedKey, name);
+        hashedKeys.put(name, storedKey);
+        return storedKey;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>();
+        for (Map.Entry<String, ?> entry : storage.getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (!isEncrypted(value)) {
+                all.put(entry.getKey(), value);
+                continue;
+            }
+            Plaintext plaintext = decrypt((String) value, entry.getKey());
+            all.put(plaintext.name != null ? plaintext.name : entry.getKey(), plaintext.value);
+        }
+        return all;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Plaintext plaintext = read(key, TYPE_STRING);
+        if (plaintext == null)
+            return storage.getString(key, defValue);
+        return plaintext == Plaintext.ABSENT ? defValue : (String) plaintext.value;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked"})
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Plaintext plaintext = read(key, TYPE_STRING_SET);
+        if (plaintext == null)
+            return storage.getStringSet(key, defValues);
+        return plaintext == Plaintext.ABSENT ? defValues : (Set<String>) plaintext.value;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Plaintext plaintext = read(key, TYPE_INT);
+        if (plaintext == null)
+            return storage.getInt(key, defValue);
+        return plaintext == Plaintext.ABSENT ? defValue : (Integer) plaintext.value;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Plaintext plaintext = read(key, TYPE_LONG);
+        if (plaintext == null)
+            return storage.getLong(key, defValue);
+        return plaintext == Plaintext.ABSENT ? defValue : (Long) plaintext.value;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Plaintext plaintext = read(key, TYPE_FLOAT);
+        if (plaintext == null)
+            return storage.getFloat(key, defValue);
+        return plaintext == Plaintext.ABSENT ? defValue : (Float) plaintext.value;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Plaintext plaintext = read(key, TYPE_BOOLEAN);
+        if (plaintext == null)
+            return storage.getBoolean(key, defValue);
+        return plaintext == Plaintext.ABSENT ? defValue : (Boolean) plaintext.value;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return storage.contains(storedKey(key));
+    }
+
+    /**
+     * Reads and decrypts the value of the key, checking its type
+     *
+     * @return the decrypted value, {@link Plaintext#ABSENT} if there is no value,
+     * or null if the value was stored unencrypted and must be read from the storage as it is
+     * @throws ClassCastException if the value is of another type, like the other storage backends
+     */
+    private Plaintext read(String name, byte type) {
+        String storedKey = storedKey(name);
+        String value;
+        try {
+            value = storage.getString(storedKey, null);
+        } catch (ClassCastException e) {
+            // a value of another type stored unencrypted
+            return null;
+        }
+        if (value == null)
+            return Plaintext.ABSENT;
+        if (!isEncrypted(value)) {
+            if (type != TYPE_STRING)
+                throw new ClassCastException("The value of " + name + " is a String");
+            return null;
+        }
+        Plaintext plaintext = decrypt(value, storedKey);
+        if (plaintext.type != type)
+            throw new ClassCastException("The value of " + name + " is of another type");
+        return plaintext;
+    }
+
+    @Override
+    public Editor edit() {
+        return new EncryptingEditor(storage.edit());
+    }
+
+    @Override
+    public synchronized void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+        if (storageListener == null) {
+            storageListener = new OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String storedKey) {
+                    String name = storedKey == null ? null : getKeyName(storedKey);
+                    // a hashed key removed before its name was ever learned cannot be reported
+                    if (storedKey != null && name == null)
+                        return;
+                    List<OnSharedPreferenceChangeListener> toNotify;
+                    synchronized (EncryptedStorage.this) {
+                        toNotify = new ArrayList<>(listeners);
+                    }
+                    for (OnSharedPreferenceChangeListener listener : toNotify)
+                        listener.onSharedPreferenceChanged(EncryptedStorage.this, name);
+                }
+            };
+            storage.registerOnSharedPreferenceChangeListener(storageListener);
+        }
+    }
+
+    @Override
+    public synchronized void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the name of the stored key, decrypting its value if the name was not learned yet
+     */
+    private String getKeyName(String storedKey) {
+        if (keyNames == null)
+            return storedKey;
+        String name = keyNames.get(storedKey);
+        if (name != null)
+            return name;
+        Object value;
+        try {
+            value = storage.getString(storedKey, null);
+        } catch (ClassCastException e) {
+            return storedKey;
+        }
+        if (!isEncrypted(value))
+            return value == null ? null : storedKey;
+        name = decrypt((String) value, storedKey).name;
+        return name != null ? name : storedKey;
+    }
+
+    private static boolean isEncrypted(Object value) {
+        return value instanceof String && ((String) value).startsWith(ENCRYPTED_PREFIX);
+    }
+
+    /**
+     * Encrypts the value, the name is only stored along when key names are hashed
+     */
+    private String encrypt(byte type, String name, byte[] value, String storedKey) {
+        byte[] nameBytes = macs != null ? name.getBytes(UTF_8) : null;
+        ByteBuffer plaintext = ByteBuffer.allocate(1 + (nameBytes != null ? 4 + nameBytes.length : 0) + value.length);
+        plaintext.put(type);
+        if (nameBytes != null)
+            plaintext.putInt(nameBytes.length).put(nameBytes);
+        plaintext.put(value);
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(storedKey.getBytes(UTF_8));
+            byte[] encrypted = new byte[IV_LENGTH + cipher.getOutputSize(plaintext.capacity())];
+            System.arraycopy(iv, 0, encrypted, 0, IV_LENGTH);
+            cipher.doFinal(plaintext.array(), 0, plaintext.capacity(), encrypted, IV_LENGTH);
+            return ENCRYPTED_PREFIX + Base64Coder.encode(encrypted);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt the value", e);
+        }
+    }
+
+    /**
+     * Returns the decrypted value, decrypting it only if it changed since it was last decrypted
+     */
+    private Plaintext decrypt(String value, String storedKey) {
+        if (decrypted == null)
+            return decryptValue(value, storedKey);
+        Plaintext plaintext;
+        synchronized (decrypted) {
+            plaintext = decrypted.get(storedKey);
+        }
+        if (plaintext != null && plaintext.ciphertext.equals(value))
+            return plaintext;
+        plaintext = decryptValue(value, storedKey);
+        synchronized (decrypted) {
+            decrypted.put(storedKey, plaintext);
+        }
+        return plaintext;
+    }
+
+    private void evictDecrypted(String storedKey) {
+        if (decrypted == null)
+            return;
+        synchronized (decrypted) {
+            if (storedKey == null)
+                decrypted.clear();
+            else
+                decrypted.remove(storedKey);
+        }
+    }
+
+    private Plaintext decryptValue(String value, String storedKey) {
+        try {
+            byte[] encrypted = Base64Coder.decode(value.substring(ENCRYPTED_PREFIX.length()));
+            if (encrypted.length < IV_LENGTH)
+                throw new IllegalStateException("Truncated encrypted value");
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, encrypted, 0, IV_LENGTH));
+            cipher.updateAAD(storedKey.getBytes(UTF_8));
+            ByteBuffer data = ByteBuffer.wrap(cipher.doFinal(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH));
+            byte type = data.get();
+            String name = null;
+            if (macs != null) {
+                name = readString(data, data.getInt());
+                keyNames.put(storedKey, name);
+            }
+            return new Plaintext(value, type, name, readValue(type, data));
+        } catch (GeneralSecurityException | BufferUnderflowException e) {
+            throw new IllegalStateException("Could not decrypt the value of a key, corrupted data or wrong key", e);
+        }
+    }
+
+    private static String readString(ByteBuffer data, int length) {
+        String value = new String(data.array(), data.position(), length, UTF_8);
+        data.position(data.position() + length);
+        return value;
+    }
+
+    private static byte[] toBytes(Set<String> values) {
+        List<byte[]> elements = new ArrayList<>(values.size());
+        int length = 4;
+        for (String element : values) {
+            byte[] encoded = element.getBytes(UTF_8);
+            elements.add(encoded);
+            length += 4 + encoded.length;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(length).putInt(elements.size());
+        for (byte[] element : elements)
+            bytes.putInt(element.length).put(element);
+        return bytes.array();
+    }
+
+    private static Object readValue(byte type, ByteBuffer data) {
+        switch (type) {
+            case TYPE_STRING:
+                return readString(data, data.remaining());
+            case TYPE_INT:
+                return data.getInt();
+            case TYPE_LONG:
+                return data.getLong();
+            case TYPE_FLOAT:
+                return Float.intBitsToFloat(data.getInt());
+            case TYPE_BOOLEAN:
+                return data.get() != 0;
+            case TYPE_STRING_SET:
+                int size = data.getInt();
+                Set<String> set = new HashSet<>();
+                for (int i = 0; i < size; i++)
+                    set.add(readString(data, data.getInt()));
+                return set;
+            default:
+                throw new IllegalStateException("Unknown value type " + type);
+        }
+    }
+
+    /**
+     * Decrypted value, along with the ciphertext it was decrypted from
+     */
+    private static final class Plaintext {
+        static final Plaintext ABSENT = new Plaintext(null, (byte) 0, null, null);
+
+        final String ciphertext;
+        final byte type;
+        final String name;
+        final Object value;
+
+        Plaintext(String ciphertext, byte type, String name, Object value) {
+            this.ciphertext = ciphertext;
+            this.type = type;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Editor encrypting the values as they are put
+     */
+    private class EncryptingEditor implements Editor {
+        private final Editor editor;
+
+        EncryptingEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            if (value == null)
+                return remove(key);
+            return putEncrypted(key, TYPE_STRING, value.getBytes(UTF_8));
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            if (values == null)
+                return remove(key);
+            return putEncrypted(key, TYPE_STRING_SET, toBytes(values));
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return putEncrypted(key, TYPE_INT, ByteBuffer.allocate(4).putInt(value).array());
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return putEncrypted(key, TYPE_LONG, ByteBuffer.allocate(8).putLong(value).array());
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return putEncrypted(key, TYPE_FLOAT, ByteBuffer.allocate(4).putInt(Float.floatToIntBits(value)).array());
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return putEncrypted(key, TYPE_BOOLEAN, new byte[]{(byte) (value ? 1 : 0)});
+        }
+
+        private Editor putEncrypted(String key, byte type, byte[] value) {
+            String storedKey = storedKey(key);
+            editor.putString(storedKey, encrypt(type, key, value, storedKey));
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            String storedKey = storedKey(key);
+            editor.remove(storedKey);
+            evictDecrypted(storedKey);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            editor.clear();
+            evictDecrypted(null);
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return editor.commit();
+        }
+
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package in.notyouraveragedev.simplepreference;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import in.notyouraveragedev.simplepreference.storage.StorageRecords;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Readers and writers of the entries of an exported store, in the formats of {@link ExportFormat}.
+ * <p>
+ * The entries are written and read one at a time, so that memory use does not depend on the size of the store.
+ * The streams passed in are buffered but never closed.
+ */
+final class EntryStreams {
+
+    static final int VERSION = 1;
+
+    private static final String FORMAT_NAME = "simplepreference";
+    private static final int BINARY_MAGIC = 0x53505846;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private EntryStreams() {
+    }
+
+    /**
+     * Writes the entries of an export, followed by {@link #finish()}
+     */
+    interface EntryWriter {
+        void write(String key, Object value) throws IOException;
+
+        /**
+         * Ends the export and flushes the stream
+         */
+        void finish() throws IOException;
+    }
+
+    /**
+     * Reads the entries of an export
+     */
+    interface EntryReader {
+        /**
+         * Reads the next entry
+         *
+         * @param entry receives the key at index 0 and the value at index 1
+         * @return false if there are no more entries
+         */
+        boolean next(Object[] entry) throws IOException;
+    }
+
+    static EntryWriter newWriter(ExportFormat format, OutputStream out) throws IOException {
+        if (format == ExportFormat.BINARY)
+            return new BinaryWriter(out);
+        return new JsonLinesWriter(out);
+    }
+
+    static EntryReader newReader(ExportFormat format, InputStream in) throws IOException {
+        if (format == ExportFormat.BINARY)
+            return new BinaryReader(in);
+        return new JsonLinesReader(in);
+    }
+
+    private static void checkVersion(int version) throws IOException {
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported export version: " + version);
+    }
+
+    /**
+     * JsonReader reports unexpected json structure using unchecked exceptions
+     */
+    private static IOException invalidExport(RuntimeException cause) {
+        return new IOException("Invalid json lines preference export: " + cause.getMessage(), cause);
+    }
+
+    private static final class BinaryWriter implements EntryWriter {
+        private final DataOutputStream out;
+
+        BinaryWriter(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.out.writeInt(BINARY_MAGIC);
+            this.out.writeByte(VERSION);
+        }
+
+        @Override
+        public void write(String key, Object value) throws IOException {
+            // every record is preceded by a marker, so that the end of the entries needs no count upfront
+            out.writeBoolean(true);
+            StorageRecords.write(out, key, value);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.writeBoolean(false);
+            out.flush();
+        }
+    }
+
+    private static final class BinaryReader implements EntryReader {
+        private final DataInputStream in;
+
+        BinaryReader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            if (this.in.readInt() != BINARY_MAGIC)
+                throw new IOException("Not a binary preference export");
+            checkVersion(this.in.readUnsignedByte());
+        }
+
+        @Override
+        public boolean next(Object[] entry) throws IOException {
+            if (!in.readBoolean())
+                return false;
+            StorageRecords.read(in, entry);
+            if (entry[1] == null)
+                throw new IOException("Missing value of key " + entry[0]);
+            return true;
+        }
+    }
+
+    private static final class JsonLinesWriter implements EntryWriter {
+        private final Writer writer;
+        private final JsonWriter json;
+
+        JsonLinesWriter(OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+            this.json = new JsonWriter(writer);
+            // allows a document per line, as well as NaN and infinite floats
+            json.setLenient(true);
+            json.beginObject();
+            json.name("format").value(FORMAT_NAME);
+            json.name("version").value(VERSION);
+            json.endObject();
+            writer.write('\n');
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked"})
+        public void write(String key, Object value) throws IOException {
+            json.beginObject();
+            json.name("key").value(key);
+            if (value instanceof String) {
+                json.name("type").value("string");
+                json.name("value").value((String) value);
+            } else if (value instanceof Integer) {
+                json.name("type").value("int");
+                json.name("value").value((Integer) value);
+            } else if (value instanceof Long) {
+                json.name("type").value("long");
+                json.name("value").value((Long) value);
+            } else if (value instanceof Float) {
+                json.name("type").value("float");
+                json.name("value").value((Float) value);
+            } else if (value instanceof Boolean) {
+                json.name("type").value("boolean");
+                json.name("value").value((Boolean) value);
+            } else if (value instanceof Set) {
+                json.name("type").value("string_set");
+                json.name("value").beginArray();
+                for (String element : (Set<String>) value)
+                    json.value(element);
+                json.endArray();
+            } else {
+                throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+            }
+            json.endObject();
+            writer.write('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            json.flush();
+        }
+    }
+
+    private static final class JsonLinesReader implements EntryReader {
+        private final JsonReader json;
+
+        JsonLinesReader(InputStream in) throws IOException {
+            this.json = new JsonReader(new InputStreamReader(new BufferedInputStream(in), UTF_8));
+            json.setLenient(true);
+            try {
+                readHeader();
+            } catch (IllegalStateException | NumberFormatException e) {
+                throw invalidExport(e);
+            }
+        }
+
+        private void readHeader() throws IOException {
+            String format = null;
+            int version = 0;
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (name.equals("format"))
+                    format = json.nextString();
+                else if (name.equals("version"))
+                    version = json.nextInt();
+                else
+                    json.skipValue();
+            }
+            json.endObject();
+            if (!FORMAT_NAME.equals(format))
+                throw new IOException("Not a json lines preference export");
+            checkVersion(version);
+        }
+
+        @Override
+        public boolean next(Object[] entry) throws IOException {
+            try {
+                return readEntry(entry);
+            } catch (IllegalStateException | NumberFormatException e) {
+                throw invalidExport(e);
+            }
+        }
+
+        private boolean readEntry(Object[] entry) throws IOException {
+            if (json.peek() == JsonToken.END_DOCUMENT)
+                return false;
+            String key = null;
+            String type = null;
+            Object value = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (name.equals("key"))
+                    key = json.nextString();
+                else if (name.equals("type"))
+                    type = json.nextString();
+                else if (name.equals("value") && type != null)
+                    value = readValue(type);
+                else
+                    json.skipValue();
+            }
+            json.endObject();
+            if (key == null || value == null)
+                throw new IOException("Invalid entry at " + json.getPath() + ", expected a key, a type and a value");
+            entry[0] = key;
+            entry[1] = value;
+            return true;
+        }
+
+        private Object readValue(String type) throws IOException {
+            switch (type) {
+                case "string":
+                    return json.nextString();
+                case "int":
+                    return json.nextInt();
+                case "long":
+                    return json.nextLong();
+                case "float":
+                    return (float) json.nextDouble();
+                case "boolean":
+                    return json.nextBoolean();
+                case "string_set":
+                    Set<String> set = new HashSet<>();
+                    json.beginArray();
+                    while (json.hasNext())
+                        set.add(json.nextString());
+                    json.endArray();
+                    return set;
+                default:
+                    throw new IOException("Unknown value type: " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage decorator expiring the values saved with a time to live.
+ * <p>
+ * The expiry time of a key is stored as a long under the key prefixed by a marker, next to its value and in the
+ * same commit, so that it survives restarts. With sharding, the expiry time is routed to the shard of its key.
+ * Expiry times are kept in memory once read, so reading a key without expiry costs a single map lookup.
+ * Expired values are reported as missing as soon as they expire, and are deleted by a sweep running periodically
+ * on a shared background thread, which removes them in batched commits so that the file does not keep growing
+ * with stale entries.
+ * <p>
+ * Saving a key again without a time to live, removing it or clearing the storage also drops its expiry time.
+ */
+class ExpiringStorage implements SharedPreferences {
+
+    /**
+     * Prefix of the keys holding the expiry times, in milliseconds since the epoch
+     */
+    private static final String EXPIRY_PREFIX = "\uFDD0ttl:";
+
+    /**
+     * Number of expired keys removed by a single commit of the sweep
+     */
+    static final int SWEEP_BATCH_SIZE = 100;
+
+    private static ScheduledThreadPoolExecutor sweeper;
+
+    private final SharedPreferences storage;
+    /**
+     * Expiry times of the keys saved with a time to live, loaded from the storage on first access
+     */
+    private final Map<String, Long> expiryTimes = new ConcurrentHashMap<>();
+    private volatile boolean isLoaded;
+    private final Object loadLock = new Object();
+    /**
+     * Held while committing, so that a sweep cannot remove a key saved again since it was found expired
+     */
+    private final Object writeLock = new Object();
+    private final Set<OnSharedPreferenceChangeListener> listeners =
+            Collections.newSetFromMap(new WeakHashMap<OnSharedPreferenceChangeListener, Boolean>());
+
+    /**
+     * Keeps the expiry times in sync with the changes made by other processes and hides their changes from the
+     * listeners. Kept as a strong reference, since SharedPreferences only keeps a weak reference to it
+     */
+    private final OnSharedPreferenceChangeListener storageListener = new OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (isExpiryKey(key)) {
+                reloadExpiryTime(key);
+                return;
+            }
+            List<OnSharedPreferenceChangeListener> toNotify;
+            synchronized (ExpiringStorage.this) {
+                toNotify = new ArrayList<>(listeners);
+            }
+            for (OnSharedPreferenceChangeListener listener : toNotify)
+                listener.onSharedPreferenceChanged(ExpiringStorage.this, key);
+        }
+    };
+
+    ExpiringStorage(SharedPreferences storage, long sweepIntervalMillis) {
+        this.storage = storage;
+        storage.registerOnSharedPreferenceChangeListener(storageListener);
+        getSweeper().scheduleWithFixedDelay(new Sweep(this), sweepIntervalMillis, sweepIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getSweeper() {
+        if (sweeper == null) {
+            sweeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SimplePreference-Expiry");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+            sweeper.setRemoveOnCancelPolicy(true);
+        }
+        return sweeper;
+    }
+
+    /**
+     * Returns the key under which the expiry time of the key is stored
+     */
+    static String expiryKey(String key) {
+        return EXPIRY_PREFIX + key;
+    }
+
+    /**
+     * Returns the key whose expiry time is stored under the key, or the key itself if it is not an expiry key
+     */
+    static String baseKey(String key) {
+        return isExpiryKey(key) ? key.substring(EXPIRY_PREFIX.length()) : key;
+    }
+
+    private static boolean isExpiryKey(String key) {
+        return key != null && key.startsWith(EXPIRY_PREFIX);
+    }
+
+    /**
+     * Reads the expiry times from the storage on first access, so that opening the storage in background
+     * is not blocked
+     */
+    private void ensureLoaded() {
+        if (isLoaded)
+            return;
+        synchronized (loadLock) {
+            if (isLoaded)
+                return;
+            for (Map.Entry<String, ?> entry : storage.getAll().entrySet()) {
+                if (isExpiryKey(entry.getKey()) && entry.getValue() instanceof Long)
+                    expiryTimes.put(entry.getKey().substring(EXPIRY_PREFIX.length()), (Long) entry.getValue());
+            }
+            isLoaded = true;
+        }
+    }
+
+    /**
+     * Reads again the expiry time changed in the storage, which is already up to date for the changes made
+     * through this storage
+     */
+    private void reloadExpiryTime(String expiryKey) {
+        if (!isLoaded)
+            return;
+        String key = expiryKey.substring(EXPIRY_PREFIX.length());
+        long expiryTime = storage.getLong(expiryKey, Long.MIN_VALUE);
+        if (expiryTime == Long.MIN_VALUE && !storage.contains(expiryKey))
+            expiryTimes.remove(key);
+        else
+            expiryTimes.put(key, expiryTime);
+    }
+
+    /**
+     * Method to check whether the value of the key has expired, without reading the value
+     */
+    boolean isExpired(String key) {
+        ensureLoaded();
+        if (expiryTimes.isEmpty())
+            return false;
+        Long expiryTime = expiryTimes.get(key);
+        return expiryTime != null && expiryTime <= System.currentTimeMillis();
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        ensureLoaded();
+        long now = System.currentTimeMillis();
+        Map<String, Object> all = new HashMap<>();
+        for (Map.Entry<String, ?> entry : storage.getAll().entrySet()) {
+            if (isExpiryKey(entry.getKey()))
+                continue;
+            Long expiryTime = expiryTimes.get(entry.getKey());
+            if (expiryTime == null || expiryTime > now)
+                all.put(entry.getKey(), entry.getValue());
+        }
+        return all;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return isExpired(key) ? defValue : storage.getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return isExpired(key) ? defValues : storage.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return isExpired(key) ? defValue : storage.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return isExpired(key) ? defValue : storage.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return isExpired(key) ? defValue : storage.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return isExpired(key) ? defValue : storage.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return !isExpired(key) && storage.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new ExpiringEditor(storage.edit());
+    }
+
+    @Override
+    public synchronized void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Removes the expired keys along with their expiry times, {@link #SWEEP_BATCH_SIZE} keys per commit.
+     * The lock is released between the commits, so that the writes are not blocked for the whole sweep.
+     *
+     * @return the number of keys removed
+     */
+    int sweep() {
+        ensureLoaded();
+        if (expiryTimes.isEmpty())
+            return 0;
+        long now = System.currentTimeMillis();
+        List<String> expiredKeys = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : expiryTimes.entrySet()) {
+            if (entry.getValue() <= now)
+                expiredKeys.add(entry.getKey());
+        }
+        int removedCount = 0;
+        for (int start = 0; start < expiredKeys.size(); start += SWEEP_BATCH_SIZE) {
+            List<String> batch = expiredKeys.subList(start, Math.min(start + SWEEP_BATCH_SIZE, expiredKeys.size()));
+            synchronized (writeLock) {
+                Editor editor = storage.edit();
+                List<String> removedKeys = new ArrayList<>();
+                for (String key : batch) {
+                    // saved again since the scan
+                    Long expiryTime = expiryTimes.get(key);
+                    if (expiryTime == null || expiryTime > now)
+                        continue;
+                    editor.remove(key).remove(expiryKey(key));
+                    removedKeys.add(key);
+                }
+                // the expiry times are kept if the commit fails, so that the values still read as expired
+                if (!removedKeys.isEmpty() && editor.commit()) {
+                    for (String key : removedKeys)
+                        expiryTimes.remove(key);
+                    removedCount += removedKeys.size();
+                }
+            }
+        }
+        return removedCount;
+    }
+
+    /**
+     * Periodic sweep, only referencing the storage weakly so that it can be garbage collected,
+     * which cancels the sweep
+     */
+    private static final class Sweep implements Runnable {
+        private final WeakReference<ExpiringStorage> storage;
+
+        Sweep(ExpiringStorage storage) {
+            this.storage = new WeakReference<>(storage);
+        }
+
+        @Override
+        public void run() {
+            ExpiringStorage expiringStorage = storage.get();
+            if (expiringStorage == null) {
+                // throwing cancels the periodic task, the storage is gone so there is nothing to sweep anymore
+                throw new IllegalStateException("Expiring storage was garbage collected");
+            }
+            expiringStorage.sweep();
+        }
+    }
+
+    /**
+     * Editor storing the expiry times put along with the values, and dropping the expiry time of the keys
+     * saved without one or removed
+     */
+    private class ExpiringEditor implements Editor {
+        private final Editor editor;
+        private final Map<String, Long> putExpiryTimes = new HashMap<>();
+        private final Set<String> putKeys = new HashSet<>();
+        private final Set<String> removedKeys = new HashSet<>();
+        private boolean isCleared;
+
+        ExpiringEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        private Editor put(String key) {
+            removedKeys.remove(key);
+            putKeys.add(key);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            if (value == null)
+                return remove(key);
+            editor.putString(key, value);
+            return put(key);
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            if (values == null)
+                return remove(key);
+            editor.putStringSet(key, values);
+            return put(key);
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            return put(key);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            if (isExpiryKey(key)) {
+                putExpiryTimes.put(key.substring(EXPIRY_PREFIX.length()), value);
+                return this;
+            }
+            editor.putLong(key, value);
+            return put(key);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            return put(key);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            return put(key);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            editor.remove(key);
+            putKeys.remove(key);
+            removedKeys.add(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            editor.clear();
+            isCleared = true;
+            return this;
+        }
+
+        /**
+         * Adds the changes of the expiry times to the editor and applies them in memory,
+         * called with the lock held so that a sweep cannot interleave
+         */
+        private void prepareExpiryTimes() {
+            ensureLoaded();
+            if (isCleared)
+                expiryTimes.clear();
+            for (String key : removedKeys) {
+                putExpiryTimes.remove(key);
+                if (expiryTimes.remove(key) != null)
+                    editor.remove(expiryKey(key));
+            }
+            for (String key : putKeys) {
+                if (!putExpiryTimes.containsKey(key) && expiryTimes.remove(key) != null)
+                    editor.remove(expiryKey(key));
+            }
+            for (Map.Entry<String, Long> entry : putExpiryTimes.entrySet()) {
+                editor.putLong(expiryKey(entry.getKey()), entry.getValue());
+                expiryTimes.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (writeLock) {
+                prepareExpiryTimes();
+                return editor.commit();
+            }
+        }
+
+        @Override
+        public void apply() {
+            synchronized (writeLock) {
+                prepareExpiryTimes();
+                editor.apply();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package in.notyouraveragedev.simplepreference;
+
+/**
+ * Formats of the streams written by {@link SimplePreferenceManager#exportTo(java.io.OutputStream, ExportFormat)}
+ * and read by {@link SimplePreferenceManager#importFrom(java.io.InputStream, ExportFormat)}.
+ * <p>
+ * Both formats start with a version header and keep the type of every value, so that integers, longs and
+ * floats are restored as such. Objects are exported in their stored form.
+ */
+public enum ExportFormat {
+
+    /**
+     * One json object per line, a header line followed by a line per entry, for example
+     * <pre>
+     * {"format":"simplepreference","version":1}
+     * {"key":"COUNT","type":"int","value":10}
+     * {"key":"TAGS","type":"string_set","value":["a","b"]}
+     * </pre>
+     * The types are string, int, long, float, boolean and string_set.
+     */
+    JSON_LINES,
+
+    /**
+     * Compact binary format, a magic number and a version followed by the entries
+     * in the record format of the file based storage backends
+     */
+    BINARY
+}
@@ -0,0 +1,118 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted index of the stored keys, answering prefix queries without copying the whole storage.
+ * <p>
+ * The index is built from a single {@link SharedPreferences#getAll()} on the first query, and is kept in sync
+ * afterwards by the writes of SimplePreferenceManager and by a change listener for the writes made elsewhere.
+ * A key is only removed from the index after checking that it is no longer stored, so that the index may hold
+ * keys which were removed concurrently but never misses a stored key. Readers skip keys without a value.
+ * <p>
+ * Along with the key, the index keeps the type of the stored value as a hint, so that the value can be read
+ * without trying every getter. Keys written after the index was built have an unknown type until they are read.
+ */
+class KeyIndex implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    static final Class<?> UNKNOWN_TYPE = Object.class;
+
+    private final SimplePreferenceManager manager;
+    private final SharedPreferences sharedPreferences;
+    private final ConcurrentSkipListMap<String, Class<?>> keys = new ConcurrentSkipListMap<>();
+    private volatile boolean isBuilt;
+
+    KeyIndex(SimplePreferenceManager manager, SharedPreferences sharedPreferences) {
+        this.manager = manager;
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    /**
+     * Returns the indexed keys starting with the prefix, in ascending order, along with their type hints.
+     * The returned map is a live view of the index.
+     */
+    NavigableMap<String, Class<?>> withPrefix(String prefix) {
+        build();
+        if (prefix.isEmpty())
+            return keys;
+        String upperBound = getUpperBound(prefix);
+        if (upperBound == null)
+            return keys.tailMap(prefix, true);
+        return keys.subMap(prefix, true, upperBound, false);
+    }
+
+    private void build() {
+        if (isBuilt)
+            return;
+        // the writes still buffered would be missing from the snapshot, the ones buffered from now on are tracked.
+        // Flushed outside the lock, since the flush notifies the listener which may need the lock
+        manager.flush();
+        synchronized (this) {
+            if (isBuilt)
+                return;
+            for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet())
+                keys.put(entry.getKey(), getType(entry.getValue()));
+            isBuilt = true;
+        }
+    }
+
+    /**
+     * Updates the index after the key was written or removed
+     */
+    void refresh(String key) {
+        if (manager.isStored(key)) {
+            keys.putIfAbsent(key, UNKNOWN_TYPE);
+            return;
+        }
+        keys.remove(key);
+        // stored again by a concurrent write, which may have refreshed the index before the removal
+        if (manager.isStored(key))
+            keys.putIfAbsent(key, UNKNOWN_TYPE);
+    }
+
+    /**
+     * Drops the index after the storage was cleared, it is built again on the next query
+     */
+    synchronized void invalidate() {
+        isBuilt = false;
+        keys.clear();
+    }
+
+    /**
+     * Records the type the value of the key was read as
+     */
+    void setType(String key, Class<?> type) {
+        keys.replace(key, type);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // key is null when the preferences were cleared
+        if (key == null)
+            invalidate();
+        else
+            refresh(key);
+    }
+
+    static Class<?> getType(Object value) {
+        return value instanceof Set ? Set.class : value.getClass();
+    }
+
+    /**
+     * Returns the smallest String greater than all the Strings starting with the prefix,
+     * or null if there is none
+     */
+    private static String getUpperBound(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE)
+            end--;
+        if (end == 0)
+            return null;
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+}
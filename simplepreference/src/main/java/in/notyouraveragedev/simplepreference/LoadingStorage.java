@@ -0,0 +1,159 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage decorator whose underlying storage is opened and loaded on a background thread.
+ * Every access waits until the loading has completed, which costs a single volatile read afterwards.
+ */
+class LoadingStorage implements SharedPreferences {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final List<OnSharedPreferenceChangeListener> pendingListeners = new ArrayList<>();
+    private volatile SharedPreferences storage;
+    private volatile RuntimeException loadingError;
+    private volatile long loadTimeNanos = -1;
+
+    /**
+     * Starts loading the storage in background
+     *
+     * @param opener opens the storage and waits until its data is loaded
+     */
+    LoadingStorage(final Callable<SharedPreferences> opener) {
+        PreferencePreloader.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.nanoTime();
+                try {
+                    SharedPreferences loaded = opener.call();
+                    synchronized (pendingListeners) {
+                        for (OnSharedPreferenceChangeListener listener : pendingListeners)
+                            loaded.registerOnSharedPreferenceChangeListener(listener);
+                        pendingListeners.clear();
+                        storage = loaded;
+                    }
+                    loadTimeNanos = System.nanoTime() - startTime;
+                } catch (Exception e) {
+                    loadingError = new IllegalStateException("Could not load the preference storage", e);
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+    }
+
+    boolean isLoaded() {
+        return latch.getCount() == 0;
+    }
+
+    void awaitLoaded() throws InterruptedException {
+        latch.await();
+    }
+
+    boolean awaitLoaded(long timeout, TimeUnit unit) throws InterruptedException {
+        return latch.await(timeout, unit);
+    }
+
+    long getLoadTimeNanos() {
+        return loadTimeNanos;
+    }
+
+    private SharedPreferences storage() {
+        SharedPreferences loaded = storage;
+        if (loaded != null)
+            return loaded;
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted)
+            Thread.currentThread().interrupt();
+        if (loadingError != null)
+            throw loadingError;
+        return storage;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return storage().getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return storage().getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return storage().getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return storage().getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return storage().getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return storage().getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return storage().getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return storage().contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return storage().edit();
+    }
+
+    /**
+     * Listeners registered before the storage is loaded are registered once it is loaded,
+     * so that building a SimplePreferenceManager never waits for the loading
+     */
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (pendingListeners) {
+            if (storage == null) {
+                pendingListeners.add(listener);
+                return;
+            }
+        }
+        storage.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (pendingListeners) {
+            if (storage == null) {
+                pendingListeners.remove(listener);
+                return;
+            }
+        }
+        storage.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+}
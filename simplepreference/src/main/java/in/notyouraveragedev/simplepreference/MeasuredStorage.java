@@ -0,0 +1,216 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import in.notyouraveragedev.simplepreference.metrics.Operation;
+import in.notyouraveragedev.simplepreference.metrics.PreferenceMetrics;
+
+/**
+ * Storage decorator recording the number and the duration of the commits into the underlying storage,
+ * and the size of the values committed against every key.
+ * <p>
+ * It wraps the underlying storage directly, below the compression and the encryption, so that the sizes are those
+ * of the values actually written: the UTF-8 bytes of Strings and String sets, and the size of the primitives.
+ * With hashed key names, the sizes are recorded against the hashed keys.
+ */
+class MeasuredStorage implements SharedPreferences {
+
+    private final SharedPreferences storage;
+    private final PreferenceMetrics metrics;
+
+    MeasuredStorage(SharedPreferences storage, PreferenceMetrics metrics) {
+        this.storage = storage;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return storage.getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return storage.getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return storage.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return storage.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return storage.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return storage.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return storage.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return storage.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new MeasuredEditor(storage.edit());
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        storage.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        storage.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * Returns the number of bytes of the String encoded in UTF-8, without encoding it
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Editor recording the size of the values once they are committed, null sizes denoting removed keys
+     */
+    private class MeasuredEditor implements Editor {
+        private final Editor editor;
+        private final Map<String, Integer> storedSizes = new LinkedHashMap<>();
+        private boolean clear = false;
+
+        MeasuredEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        private Editor stored(String key, Integer size) {
+            // expiry times are bookkeeping of the keys they belong to
+            if (ExpiringStorage.baseKey(key).equals(key))
+                storedSizes.put(key, size);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            editor.putString(key, value);
+            return stored(key, value == null ? null : utf8Length(value));
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            editor.putStringSet(key, values);
+            if (values == null)
+                return stored(key, null);
+            int size = 0;
+            for (String value : values)
+                size += utf8Length(value);
+            return stored(key, size);
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            return stored(key, 4);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            editor.putLong(key, value);
+            return stored(key, 8);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            return stored(key, 4);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            return stored(key, 1);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            editor.remove(key);
+            return stored(key, null);
+        }
+
+        @Override
+        public Editor clear() {
+            editor.clear();
+            clear = true;
+            return this;
+        }
+
+        private void recordStoredSizes() {
+            if (clear)
+                metrics.recordRemoved(null);
+            for (Map.Entry<String, Integer> entry : storedSizes.entrySet()) {
+                if (entry.getValue() == null)
+                    metrics.recordRemoved(entry.getKey());
+                else
+                    metrics.recordStoredLength(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public boolean commit() {
+            long startTime = System.nanoTime();
+            boolean isCommitted = false;
+            try {
+                isCommitted = editor.commit();
+                return isCommitted;
+            } finally {
+                metrics.recordLatency(Operation.COMMIT, null, System.nanoTime() - startTime);
+                if (isCommitted)
+                    recordStoredSizes();
+            }
+        }
+
+        @Override
+        public void apply() {
+            long startTime = System.nanoTime();
+            try {
+                editor.apply();
+            } finally {
+                metrics.recordLatency(Operation.COMMIT, null, System.nanoTime() - startTime);
+            }
+            recordStoredSizes();
+        }
+    }
+}
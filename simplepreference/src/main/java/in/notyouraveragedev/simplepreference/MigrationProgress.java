@@ -0,0 +1,78 @@
+package in.notyouraveragedev.simplepreference;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the progress of a {@link PreferenceMigration}.
+ * <p>
+ * The counts cover all the runs of the migration, including the ones interrupted by the death of the process,
+ * while the throughput only covers the current run.
+ */
+public final class MigrationProgress {
+    private final long migratedCount;
+    private final long skippedCount;
+    private final long remainingCount;
+    private final long runCount;
+    private final long runTimeNanos;
+
+    MigrationProgress(long migratedCount, long skippedCount, long remainingCount, long runCount, long runTimeNanos) {
+        this.migratedCount = migratedCount;
+        this.skippedCount = skippedCount;
+        this.remainingCount = remainingCount;
+        this.runCount = runCount;
+        this.runTimeNanos = runTimeNanos;
+    }
+
+    /**
+     * @return the number of entries moved into the SimplePreferenceManager
+     */
+    public long getMigratedCount() {
+        return migratedCount;
+    }
+
+    /**
+     * @return the number of entries dropped since the SimplePreferenceManager already had data against their key
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return the number of entries left in the legacy file
+     */
+    public long getRemainingCount() {
+        return remainingCount;
+    }
+
+    /**
+     * @return the fraction of the entries processed, from 0 to 1
+     */
+    public double getFractionDone() {
+        long doneCount = migratedCount + skippedCount;
+        return doneCount + remainingCount == 0 ? 1 : (double) doneCount / (doneCount + remainingCount);
+    }
+
+    /**
+     * @return the time spent by the current run in nanoseconds, including the delays between batches
+     */
+    public long getRunTimeNanos() {
+        return runTimeNanos;
+    }
+
+    /**
+     * @return the number of entries processed per second by the current run
+     */
+    public double getEntriesPerSecond() {
+        return runTimeNanos == 0 ? 0 : runCount * (double) TimeUnit.SECONDS.toNanos(1) / runTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationProgress{" +
+                "migratedCount=" + migratedCount +
+                ", skippedCount=" + skippedCount +
+                ", remainingCount=" + remainingCount +
+                ", entriesPerSecond=" + getEntriesPerSecond() +
+                '}';
+    }
+}
@@ -0,0 +1,109 @@
+package in.notyouraveragedev.simplepreference;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of deserialized objects, keyed by the preference key and the class
+ * the stored data was deserialized into.
+ * <p>
+ * Every invalidation bumps a generation counter, so that a value decoded from data read before
+ * an invalidation is not put into the cache afterwards.
+ */
+class ObjectCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<CacheKey, Object> entries;
+    private long generation;
+    private long hitCount;
+    private long missCount;
+
+    ObjectCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<CacheKey, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached object, updating the hit / miss counters
+     *
+     * @return the cached object, or null if not cached
+     */
+    synchronized Object get(String key, Class<?> targetClass) {
+        Object value = entries.get(new CacheKey(key, targetClass));
+        if (value == null)
+            missCount++;
+        else
+            hitCount++;
+        return value;
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put(long, String, Class, Object)}
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the object unless an invalidation happened since the specified generation was read
+     */
+    synchronized void put(long generation, String key, Class<?> targetClass, Object value) {
+        if (this.generation == generation && value != null)
+            entries.put(new CacheKey(key, targetClass), value);
+    }
+
+    /**
+     * Removes the objects cached against the specified key, for all the classes
+     *
+     * @param key the key whose objects should be removed, null to remove everything
+     */
+    synchronized void invalidate(String key) {
+        generation++;
+        if (key == null) {
+            entries.clear();
+            return;
+        }
+        Iterator<CacheKey> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().key.equals(key))
+                iterator.remove();
+        }
+    }
+
+    void invalidateAll() {
+        invalidate(null);
+    }
+
+    synchronized CacheStats getStats() {
+        return new CacheStats(hitCount, missCount, entries.size(), maxSize);
+    }
+
+    private static final class CacheKey {
+        private final String key;
+        private final Class<?> targetClass;
+
+        CacheKey(String key, Class<?> targetClass) {
+            this.key = key;
+            this.targetClass = targetClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return key.equals(cacheKey.key) && targetClass.equals(cacheKey.targetClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + targetClass.hashCode();
+        }
+    }
+}
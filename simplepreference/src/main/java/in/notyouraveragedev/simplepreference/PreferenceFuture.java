@@ -0,0 +1,85 @@
+package in.notyouraveragedev.simplepreference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Result of an asynchronous write performed by SimplePreferenceManager.
+ * <p>
+ * The result can either be awaited using {@link #get()} or observed using {@link #whenComplete(Callback)},
+ * so that failures of background writes are not lost.
+ */
+public class PreferenceFuture extends FutureTask<Boolean> {
+
+    /**
+     * Callback invoked once the asynchronous write completes
+     */
+    public interface Callback {
+        /**
+         * Called on the thread that completed the write, or on the registering thread
+         * if the write had already completed.
+         *
+         * @param result true if the data was written successfully, false if the write failed
+         *               or an error occurred
+         * @param error  the error thrown while writing, null if none
+         */
+        void onComplete(boolean result, Throwable error);
+    }
+
+    private final List<Callback> callbacks = new ArrayList<>();
+
+    PreferenceFuture(Callable<Boolean> callable) {
+        super(callable);
+    }
+
+    /**
+     * Registers a callback to be notified once the write completes
+     *
+     * @param callback the callback to be notified
+     * @return this PreferenceFuture
+     */
+    public PreferenceFuture whenComplete(Callback callback) {
+        synchronized (callbacks) {
+            if (!isDone()) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        notifyCallback(callback);
+        return this;
+    }
+
+    /**
+     * Fails the write without running it, used when the executor rejected it
+     */
+    void reject(Throwable error) {
+        setException(error);
+    }
+
+    @Override
+    protected void done() {
+        List<Callback> toNotify;
+        synchronized (callbacks) {
+            toNotify = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for (Callback callback : toNotify)
+            notifyCallback(callback);
+    }
+
+    private void notifyCallback(Callback callback) {
+        boolean result = false;
+        Throwable error = null;
+        try {
+            result = get();
+        } catch (ExecutionException e) {
+            error = e.getCause();
+        } catch (Exception e) {
+            error = e;
+        }
+        callback.onComplete(result, error);
+    }
+}
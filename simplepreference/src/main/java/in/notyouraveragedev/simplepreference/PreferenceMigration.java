@@ -0,0 +1,258 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the data of a legacy Shared Preference File into a SimplePreferenceManager, in small batches
+ * on a background thread, so that the migration never blocks the startup of the app:
+ * <pre>
+ * new PreferenceMigration.PreferenceMigrationBuilder(context, "legacy_preferences", simplePreferenceManager)
+ *         .withBatchSize(100)
+ *         .withListener(listener)
+ *         .build()
+ *         .start();
+ * </pre>
+ * The keys are moved in ascending order. After every batch is stored, the last key of the batch is recorded as
+ * the cursor of the migration in a checkpoint file and the batch is removed from the legacy file, so that a
+ * migration interrupted by the death of the process resumes from the cursor when started again.
+ * <p>
+ * Data already stored in the SimplePreferenceManager against a legacy key is newer and is kept, the legacy
+ * value is dropped. This also makes storing a batch again after an interruption harmless.
+ * Objects are moved in their stored form, which SimplePreferenceManager reads as long as they were stored
+ * as json, like Gson does.
+ * <p>
+ * Once a run finds no data left, the migration is marked as completed and later runs return immediately.
+ */
+public final class PreferenceMigration {
+
+    /**
+     * Notified of the progress of the migration, on the migration thread
+     */
+    public interface Listener {
+        /**
+         * Called after every batch stored
+         */
+        void onProgress(MigrationProgress progress);
+
+        /**
+         * Called once all the legacy data has been moved
+         */
+        void onComplete(MigrationProgress progress);
+    }
+
+    /**
+     * Builder class to configure the PreferenceMigration
+     */
+    public static class PreferenceMigrationBuilder {
+        private static final int DEFAULT_BATCH_SIZE = 50;
+        private final SharedPreferences legacyPreferences;
+        private final SharedPreferences checkpoint;
+        private final SimplePreferenceManager target;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private long batchDelayMillis;
+        private Listener listener;
+
+        /**
+         * Constructor of the builder
+         *
+         * @param context        the context used to open the legacy file and the checkpoint file
+         * @param legacyFileName the name of the legacy Shared Preference File
+         * @param target         the SimplePreferenceManager receiving the data
+         */
+        public PreferenceMigrationBuilder(Context context, String legacyFileName, SimplePreferenceManager target) {
+            this(context.getSharedPreferences(legacyFileName, Context.MODE_PRIVATE),
+                    context.getSharedPreferences(legacyFileName + CHECKPOINT_SUFFIX, Context.MODE_PRIVATE), target);
+        }
+
+        /**
+         * Constructor of the builder, for legacy data in any storage backend implementing the SharedPreferences
+         * contract. The checkpoint storage must be persistent for the migration to resume after the death of
+         * the process.
+         *
+         * @param legacyPreferences the storage holding the legacy data
+         * @param checkpoint        the storage recording the progress of the migration
+         * @param target            the SimplePreferenceManager receiving the data
+         */
+        public PreferenceMigrationBuilder(SharedPreferences legacyPreferences, SharedPreferences checkpoint,
+                                          SimplePreferenceManager target) {
+            if (legacyPreferences == null || checkpoint == null || target == null)
+                throw new IllegalArgumentException("Legacy storage, checkpoint storage and target cannot be null");
+            this.legacyPreferences = legacyPreferences;
+            this.checkpoint = checkpoint;
+            this.target = target;
+        }
+
+        /**
+         * Sets the number of entries moved using a single commit, 50 by default
+         *
+         * @param batchSize the number of entries of a batch
+         * @return the builder itself
+         */
+        public PreferenceMigrationBuilder withBatchSize(int batchSize) {
+            if (batchSize <= 0)
+                throw new IllegalArgumentException("Batch size must be positive");
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Pauses the migration between batches, to leave the storage and the CPU to the app while it starts
+         *
+         * @param delay the pause between two batches
+         * @param unit  the unit of the delay
+         * @return the builder itself
+         */
+        public PreferenceMigrationBuilder withBatchDelay(long delay, TimeUnit unit) {
+            if (delay < 0)
+                throw new IllegalArgumentException("Batch delay cannot be negative");
+            this.batchDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Sets the listener notified of the progress of the migration
+         *
+         * @param listener the listener
+         * @return the builder itself
+         */
+        public PreferenceMigrationBuilder withListener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public PreferenceMigration build() {
+            return new PreferenceMigration(this);
+        }
+    }
+
+    private static final String CHECKPOINT_SUFFIX = "_migration";
+    private static final String KEY_CURSOR = "cursor";
+    private static final String KEY_MIGRATED_COUNT = "migratedCount";
+    private static final String KEY_SKIPPED_COUNT = "skippedCount";
+    private static final String KEY_COMPLETED = "completed";
+
+    private final SharedPreferences legacyPreferences;
+    private final SharedPreferences checkpoint;
+    private final SimplePreferenceManager target;
+    private final int batchSize;
+    private final long batchDelayMillis;
+    private final Listener listener;
+
+    private PreferenceMigration(PreferenceMigrationBuilder builder) {
+        this.legacyPreferences = builder.legacyPreferences;
+        this.checkpoint = builder.checkpoint;
+        this.target = builder.target;
+        this.batchSize = builder.batchSize;
+        this.batchDelayMillis = builder.batchDelayMillis;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * @return true once all the legacy data has been moved
+     */
+    public boolean isCompleted() {
+        return checkpoint.getBoolean(KEY_COMPLETED, false);
+    }
+
+    /**
+     * Starts or resumes the migration on a background thread.
+     * Cancelling the returned future with interruption stops the migration after the current batch,
+     * the next start resumes from there.
+     *
+     * @return the result of the migration, true if all the data was moved, false if a batch could not be stored
+     */
+    public PreferenceFuture start() {
+        PreferenceFuture future = new PreferenceFuture(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws InterruptedException {
+                return migrate();
+            }
+        });
+        Thread thread = new Thread(future, "SimplePreference-Migration");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * Runs the migration on the calling thread
+     *
+     * @return true if all the data was moved, false if a batch could not be stored
+     * @throws InterruptedException if the thread was interrupted, the migration stops after the current batch
+     */
+    public boolean migrate() throws InterruptedException {
+        if (isCompleted())
+            return true;
+        long startTime = System.nanoTime();
+        String cursor = checkpoint.getString(KEY_CURSOR, null);
+        long migratedCount = checkpoint.getLong(KEY_MIGRATED_COUNT, 0);
+        long skippedCount = checkpoint.getLong(KEY_SKIPPED_COUNT, 0);
+        long runCount = 0;
+
+        TreeMap<String, Object> pending = new TreeMap<>(legacyPreferences.getAll());
+        // keys up to the cursor were left by an interrupted run or written since, they are moved last
+        List<NavigableMap<String, Object>> parts = new ArrayList<>();
+        if (cursor == null) {
+            parts.add(pending);
+        } else {
+            parts.add(pending.tailMap(cursor, false));
+            parts.add(pending.headMap(cursor, true));
+        }
+        for (NavigableMap<String, Object> part : parts) {
+            while (!part.isEmpty()) {
+                if (Thread.interrupted())
+                    throw new InterruptedException("Migration interrupted");
+                Map<String, Object> batch = new LinkedHashMap<>();
+                List<String> batchKeys = new ArrayList<>();
+                while (batchKeys.size() < batchSize && !part.isEmpty()) {
+                    Map.Entry<String, Object> entry = part.pollFirstEntry();
+                    batchKeys.add(entry.getKey());
+                    if (target.isStored(entry.getKey()))
+                        skippedCount++;
+                    else
+                        batch.put(entry.getKey(), entry.getValue());
+                }
+                if (!batch.isEmpty() && !target.putAll(batch))
+                    return false;
+                migratedCount += batch.size();
+                runCount += batchKeys.size();
+                cursor = batchKeys.get(batchKeys.size() - 1);
+                checkpoint.edit()
+                        .putString(KEY_CURSOR, cursor)
+                        .putLong(KEY_MIGRATED_COUNT, migratedCount)
+                        .putLong(KEY_SKIPPED_COUNT, skippedCount)
+                        .commit();
+                SharedPreferences.Editor legacyEditor = legacyPreferences.edit();
+                for (String key : batchKeys)
+                    legacyEditor.remove(key);
+                legacyEditor.commit();
+
+                if (listener != null)
+                    listener.onProgress(new MigrationProgress(migratedCount, skippedCount, pending.size(),
+                            runCount, System.nanoTime() - startTime));
+                if (batchDelayMillis > 0 && !pending.isEmpty())
+                    Thread.sleep(batchDelayMillis);
+            }
+        }
+
+        // the legacy data may have been written while migrating, it is moved by the next run
+        if (!legacyPreferences.getAll().isEmpty())
+            return true;
+        checkpoint.edit().putBoolean(KEY_COMPLETED, true).remove(KEY_CURSOR).commit();
+        if (listener != null)
+            listener.onComplete(new MigrationProgress(migratedCount, skippedCount, 0,
+                    runCount, System.nanoTime() - startTime));
+        return true;
+    }
+}
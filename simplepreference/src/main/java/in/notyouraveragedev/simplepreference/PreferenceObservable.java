@@ -0,0 +1,90 @@
+package in.notyouraveragedev.simplepreference;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream of the changes of a single key, created using {@link SimplePreferenceManager#observe(String, Class)}.
+ * <p>
+ * The operators configure the observers subscribed afterwards, for example
+ * <pre>
+ * PreferenceSubscription subscription = simplePreferenceManager.observe("THEME", String.class)
+ *         .debounce(300, TimeUnit.MILLISECONDS)
+ *         .distinctUntilChanged()
+ *         .subscribe(observer);
+ * </pre>
+ * The changes are dispatched by a single listener registered on the storage, which only notifies
+ * the observers of the changed key. The observers are not called for the current value of the key,
+ * and changes buffered by write-behind are notified once they are flushed.
+ *
+ * @param <T> the type the value of the key is read as
+ */
+public final class PreferenceObservable<T> {
+
+    private final SimplePreferenceManager manager;
+    private final String key;
+    private final Class<T> type;
+    private long debounceMillis;
+    private boolean isDistinctUntilChanged;
+    private Executor executor;
+
+    PreferenceObservable(SimplePreferenceManager manager, String key, Class<T> type) {
+        this.manager = manager;
+        this.key = key;
+        this.type = type;
+    }
+
+    /**
+     * Delivers only the last change of a burst, once no other change happened for the given time.
+     * The value is read when it is delivered.
+     *
+     * @param timeout the time without changes after which the value is delivered
+     * @param unit    the unit of the timeout
+     * @return the PreferenceObservable itself
+     */
+    public PreferenceObservable<T> debounce(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("Debounce timeout cannot be negative");
+        this.debounceMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Skips the changes whose value equals the last delivered value, compared using equals.
+     * The value of the key at the time of subscription counts as delivered.
+     *
+     * @return the PreferenceObservable itself
+     */
+    public PreferenceObservable<T> distinctUntilChanged() {
+        this.isDistinctUntilChanged = true;
+        return this;
+    }
+
+    /**
+     * Delivers the changes on the given executor, for example the main thread executor.
+     * The executor should run the tasks in order for the observer to receive the changes in order.
+     *
+     * @param executor the executor calling the observer
+     * @return the PreferenceObservable itself
+     */
+    public PreferenceObservable<T> observeOn(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Starts delivering the changes of the key to the observer
+     *
+     * @param observer the observer to be notified
+     * @return the subscription used to stop the notifications
+     */
+    public PreferenceSubscription subscribe(PreferenceObserver<T> observer) {
+        if (observer == null)
+            throw new IllegalArgumentException("Observer cannot be null");
+        ChangeDispatcher dispatcher = manager.getChangeDispatcher();
+        ChangeDispatcher.Subscriber<T> subscriber = new ChangeDispatcher.Subscriber<>(dispatcher, manager, key, type,
+                observer, debounceMillis, isDistinctUntilChanged, executor);
+        dispatcher.add(subscriber);
+        return subscriber;
+    }
+}
@@ -0,0 +1,30 @@
+package in.notyouraveragedev.simplepreference;
+
+/**
+ * Receives the changes of a single key observed using {@link SimplePreferenceManager#observe(String, Class)}
+ *
+ * @param <T> the type the value of the key is read as
+ */
+public interface PreferenceObserver<T> {
+
+    /**
+     * Called after the value of the observed key has changed.
+     * <p>
+     * Without {@link PreferenceObservable#observeOn(java.util.concurrent.Executor)}, the thread depends on the storage:
+     * <ul>
+     * <li>the Android SharedPreferences notify the changes on the main thread</li>
+     * <li>the storages extending {@link in.notyouraveragedev.simplepreference.storage.AbstractPreferenceStorage},
+     * such as the in-memory, file, mapped log and multi-process storages, notify them on the thread that committed
+     * the change, which is the background thread for the asynchronous and write-behind saves</li>
+     * <li>the multi-process storage notifies the changes made by other processes on the thread reading the storage
+     * when they are picked up</li>
+     * </ul>
+     * Debounced changes are delivered on the debounce thread instead. Use
+     * {@link PreferenceObservable#observeOn(java.util.concurrent.Executor)} to deliver them on a given thread,
+     * for example the main thread before updating the UI.
+     *
+     * @param key   the observed key
+     * @param value the new value of the key, or null if the key was removed
+     */
+    void onChanged(String key, T value);
+}
@@ -0,0 +1,111 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads Shared Preference Files on a background thread, so that the first read does not have to wait
+ * for the file to be parsed. Meant to be started as early as possible, for example in Application.onCreate():
+ * <pre>
+ * PreferencePreloader.preload(this, "DEFAULT_SIMPLE_PREFERENCE", "CustomFileName");
+ * </pre>
+ * Android keeps a single SharedPreferences instance per file, so SimplePreferenceManagers built afterwards
+ * for the same files use the preloaded data.
+ */
+public final class PreferencePreloader {
+
+    private static ExecutorService loadingExecutor;
+
+    private final CountDownLatch latch;
+    private final Map<String, Long> loadTimes = new ConcurrentHashMap<>();
+
+    private PreferencePreloader(int fileCount) {
+        this.latch = new CountDownLatch(fileCount);
+    }
+
+    /**
+     * Starts loading the specified Shared Preference Files in background, using Context.MODE_PRIVATE
+     *
+     * @param context   the current context
+     * @param fileNames the names of the Shared Preference Files to be loaded
+     * @return a PreferencePreloader to observe the loading
+     */
+    public static PreferencePreloader preload(Context context, String... fileNames) {
+        final Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        final PreferencePreloader preloader = new PreferencePreloader(fileNames.length);
+        for (final String fileName : fileNames) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    long startTime = System.nanoTime();
+                    try {
+                        SharedPreferences sharedPreferences = applicationContext.getSharedPreferences(fileName, Context.MODE_PRIVATE);
+                        // any read blocks until the file has been parsed
+                        sharedPreferences.contains(fileName);
+                        preloader.loadTimes.put(fileName, System.nanoTime() - startTime);
+                    } finally {
+                        preloader.latch.countDown();
+                    }
+                }
+            });
+        }
+        return preloader;
+    }
+
+    /**
+     * @return true once all the files have been loaded
+     */
+    public boolean isLoaded() {
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * Blocks until all the files have been loaded
+     */
+    public void awaitLoaded() throws InterruptedException {
+        latch.await();
+    }
+
+    /**
+     * Blocks until all the files have been loaded or the timeout elapses
+     *
+     * @return true if all the files were loaded, false if the timeout elapsed
+     */
+    public boolean awaitLoaded(long timeout, TimeUnit unit) throws InterruptedException {
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * @param fileName the name of a preloaded file
+     * @return the time taken to load the file in nanoseconds, or -1 if it is not loaded yet
+     */
+    public long getLoadTimeNanos(String fileName) {
+        Long loadTime = loadTimes.get(fileName);
+        return loadTime == null ? -1 : loadTime;
+    }
+
+    /**
+     * Runs the task on the background thread shared by all the preference loading
+     */
+    static synchronized void execute(Runnable task) {
+        if (loadingExecutor == null) {
+            loadingExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SimplePreference-Loader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        loadingExecutor.execute(task);
+    }
+}
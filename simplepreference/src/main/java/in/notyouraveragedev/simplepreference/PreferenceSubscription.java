@@ -0,0 +1,18 @@
+package in.notyouraveragedev.simplepreference;
+
+/**
+ * Handle of an observer registered using {@link PreferenceObservable#subscribe(PreferenceObserver)}
+ */
+public interface PreferenceSubscription {
+
+    /**
+     * Stops the delivery of changes to the observer, including a pending debounced change.
+     * Calling this method more than once has no effect.
+     */
+    void unsubscribe();
+
+    /**
+     * @return true until {@link #unsubscribe()} is called
+     */
+    boolean isSubscribed();
+}
@@ -0,0 +1,15 @@
+package in.notyouraveragedev.simplepreference;
+
+/**
+ * Block of changes applied atomically by {@link SimplePreferenceManager#runInTransaction(PreferenceTransaction)}
+ */
+public interface PreferenceTransaction {
+
+    /**
+     * Records the changes of the transaction into the editor.
+     * If this method throws, none of the recorded changes are applied.
+     *
+     * @param editor the editor recording the changes
+     */
+    void execute(TransactionEditor editor);
+}
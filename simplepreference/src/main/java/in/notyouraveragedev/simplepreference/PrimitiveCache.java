@@ -0,0 +1,158 @@
+package in.notyouraveragedev.simplepreference;
+
+import java.util.Arrays;
+
+/**
+ * Cache of int, long, float and boolean values keeping them unboxed, so that lookups do not allocate.
+ * <p>
+ * The entries are kept in an open-addressing table with linear probing: the keys, the value bits and the
+ * value types are stored in parallel arrays. Once the cache holds its maximum number of keys it is emptied,
+ * which keeps it simple for its use case, a small set of keys read very frequently.
+ * <p>
+ * Like {@link ObjectCache}, every invalidation bumps a generation counter, so that a value read before
+ * an invalidation is not put into the cache afterwards.
+ */
+class PrimitiveCache {
+
+    static final byte TYPE_INT = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_FLOAT = 3;
+    static final byte TYPE_BOOLEAN = 4;
+    /**
+     * Type of a key known not to be stored, the caller's default value applies
+     */
+    static final byte TYPE_ABSENT = 5;
+
+    /**
+     * Returned by {@link #lookup(String, byte)} when the key is not cached with the requested type
+     */
+    static final byte MISS = 0;
+
+    private final int maxSize;
+    private final String[] keys;
+    private final long[] values;
+    private final byte[] types;
+    private final int mask;
+    private int size;
+    private long generation;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Value bits of the last successful lookup, only valid while holding the lock of the cache
+     */
+    private long lastValue;
+
+    PrimitiveCache(int maxSize) {
+        int capacity = Integer.highestOneBit(Math.max(maxSize, 2) * 2 - 1) << 1;
+        this.maxSize = maxSize;
+        this.keys = new String[capacity];
+        this.values = new long[capacity];
+        this.types = new byte[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Looks up the key, updating the hit / miss counters. On a hit the value bits are available using
+     * {@link #lastValue()}, hence the two calls must be made while holding the lock of the cache.
+     *
+     * @return {@link #MISS}, {@link #TYPE_ABSENT} or the requested type
+     */
+    synchronized byte lookup(String key, byte type) {
+        int index = indexOf(key);
+        if (index >= 0 && (types[index] == type || types[index] == TYPE_ABSENT)) {
+            hitCount++;
+            lastValue = values[index];
+            return types[index];
+        }
+        missCount++;
+        return MISS;
+    }
+
+    synchronized long lastValue() {
+        return lastValue;
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put(long, String, byte, long)}
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the value unless an invalidation happened since the specified generation was read
+     */
+    synchronized void put(long generation, String key, byte type, long value) {
+        if (this.generation != generation)
+            return;
+        int index = indexOf(key);
+        if (index < 0) {
+            if (size >= maxSize)
+                clear();
+            index = hash(key) & mask;
+            while (keys[index] != null)
+                index = (index + 1) & mask;
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+        types[index] = type;
+    }
+
+    /**
+     * Removes the cached value of the key, or all the values if the key is null
+     */
+    synchronized void invalidate(String key) {
+        generation++;
+        if (key == null) {
+            clear();
+            return;
+        }
+        int index = indexOf(key);
+        if (index < 0)
+            return;
+        // backward shift deletion, moving the following entries of the probe sequence into the gap
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != null) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                types[gap] = types[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = null;
+        types[gap] = MISS;
+        size--;
+    }
+
+    synchronized CacheStats getStats() {
+        return new CacheStats(hitCount, missCount, size, maxSize);
+    }
+
+    private int indexOf(String key) {
+        int index = hash(key) & mask;
+        String candidate;
+        while ((candidate = keys[index]) != null) {
+            if (candidate == key || candidate.equals(key))
+                return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(types, MISS);
+        size = 0;
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,60 @@
+package in.notyouraveragedev.simplepreference;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executor that runs the submitted writes one at a time, in submission order,
+ * on top of any other Executor. This guarantees that asynchronous writes to the same key
+ * are applied in the order they were issued, even when the backing executor has several threads.
+ * <p>
+ * A write rejected by the backing executor fails its PreferenceFuture, and the next writes are still submitted.
+ */
+class SerialExecutor {
+
+    private final Executor executor;
+    private final ArrayDeque<SerialTask> tasks = new ArrayDeque<>();
+    private SerialTask active;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    synchronized void execute(PreferenceFuture future) {
+        tasks.offer(new SerialTask(future));
+        if (active == null)
+            scheduleNext();
+    }
+
+    private synchronized void scheduleNext() {
+        while ((active = tasks.poll()) != null) {
+            try {
+                executor.execute(active);
+                return;
+            } catch (RejectedExecutionException e) {
+                active.future.reject(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the write, then submits the next one
+     */
+    private class SerialTask implements Runnable {
+        private final PreferenceFuture future;
+
+        SerialTask(PreferenceFuture future) {
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.run();
+            } finally {
+                scheduleNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Storage splitting the keys over multiple underlying storages, called shards.
+ * <p>
+ * Every key is routed to exactly one shard, so a commit only rewrites the shards containing the changed keys
+ * and every shard is opened only when one of its keys is accessed for the first time. Operations spanning all
+ * the keys, like {@link #getAll()} or a clear, open every shard.
+ * <p>
+ * A commit touching multiple shards commits them one after the other, hence it is not atomic across shards.
+ * The expiry time of a key is routed by the key itself, so that both are always written by the same commit.
+ */
+class ShardedStorage implements SharedPreferences {
+
+    /**
+     * Opens the storage of a shard
+     */
+    interface ShardOpener {
+        SharedPreferences open(String shardName);
+    }
+
+    private final Router router;
+    private final ShardOpener opener;
+    private final SharedPreferences[] shards;
+    private final Set<OnSharedPreferenceChangeListener> listeners =
+            Collections.newSetFromMap(new WeakHashMap<OnSharedPreferenceChangeListener, Boolean>());
+
+    ShardedStorage(Router router, ShardOpener opener) {
+        this.router = router;
+        this.opener = opener;
+        this.shards = new SharedPreferences[router.getShardCount()];
+    }
+
+    /**
+     * Returns the storage of the specified shard, opening it if needed
+     */
+    private synchronized SharedPreferences getShard(int shard) {
+        if (shards[shard] == null) {
+            shards[shard] = opener.open(router.getShardName(shard));
+            for (OnSharedPreferenceChangeListener listener : listeners)
+                shards[shard].registerOnSharedPreferenceChangeListener(listener);
+        }
+        return shards[shard];
+    }
+
+    private SharedPreferences getShard(String key) {
+        return getShard(router.route(key));
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>();
+        for (int shard = 0; shard < shards.length; shard++)
+            all.putAll(getShard(shard).getAll());
+        return all;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return getShard(key).getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return getShard(key).getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return getShard(key).getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return getShard(key).getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return getShard(key).getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return getShard(key).getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return getShard(key).contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new ShardedEditor();
+    }
+
+    @Override
+    public synchronized void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+        for (SharedPreferences shard : shards) {
+            if (shard != null)
+                shard.registerOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    @Override
+    public synchronized void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+        for (SharedPreferences shard : shards) {
+            if (shard != null)
+                shard.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    /**
+     * Editor holding one editor per changed shard, only the changed shards are committed
+     */
+    private class ShardedEditor implements Editor {
+        private final Editor[] editors = new Editor[shards.length];
+        private boolean clear = false;
+
+        private Editor getEditor(String key) {
+            return getEditor(router.route(key));
+        }
+
+        private Editor getEditor(int shard) {
+            if (editors[shard] == null)
+                editors[shard] = getShard(shard).edit();
+            return editors[shard];
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            getEditor(key).putString(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            getEditor(key).putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            getEditor(key).putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            getEditor(key).putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            getEditor(key).putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            getEditor(key).putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            getEditor(key).remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        /**
+         * Like SharedPreferences, the clear is applied before the other changes regardless of the call order
+         */
+        private void applyClear() {
+            if (clear) {
+                for (int shard = 0; shard < editors.length; shard++)
+                    getEditor(shard).clear();
+            }
+        }
+
+        @Override
+        public boolean commit() {
+            applyClear();
+            boolean result = true;
+            for (Editor editor : editors) {
+                if (editor != null)
+                    result &= editor.commit();
+            }
+            return result;
+        }
+
+        @Override
+        public void apply() {
+            applyClear();
+            for (Editor editor : editors) {
+                if (editor != null)
+                    editor.apply();
+            }
+        }
+    }
+
+    /**
+     * Decides the shard of every key and names the shards
+     */
+    abstract static class Router {
+
+        /**
+         * Returns the shard of the key, the key holding the expiry time of a key going to the shard of the key
+         */
+        final int route(String key) {
+            return getShard(ExpiringStorage.baseKey(key));
+        }
+
+        abstract int getShardCount();
+
+        abstract int getShard(String key);
+
+        abstract String getShardName(int shard);
+    }
+
+    /**
+     * Routes the keys by a consistent hash of the key.
+     * Increasing the number of shards from n to m moves only (m - n) / m of the keys to a different shard.
+     * The first shard uses the unsharded file name, so the keys remaining there stay readable after
+     * enabling the sharding on an existing file.
+     */
+    static class HashRouter extends Router {
+        private final String fileName;
+        private final int shardCount;
+
+        HashRouter(String fileName, int shardCount) {
+            if (shardCount < 1)
+                throw new IllegalArgumentException("shardCount must be at least 1");
+            this.fileName = fileName;
+            this.shardCount = shardCount;
+        }
+
+        @Override
+        int getShardCount() {
+            return shardCount;
+        }
+
+        /**
+         * Jump consistent hash of the 64 bit FNV-1a hash of the key
+         */
+        @Override
+        int getShard(String key) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            long bucket = -1;
+            long next = 0;
+            while (next < shardCount) {
+                bucket = next;
+                hash = hash * 2862933555777941757L + 1;
+                next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((hash >>> 33) + 1)));
+            }
+            return (int) bucket;
+        }
+
+        @Override
+        String getShardName(int shard) {
+            return shard == 0 ? fileName : fileName + "_" + shard;
+        }
+    }
+
+    /**
+     * Routes the keys starting with one of the namespaces into a separate shard per namespace,
+     * the longest matching namespace wins. The remaining keys stay in the unsharded file.
+     */
+    static class NamespaceRouter extends Router {
+        private final String fileName;
+        private final List<String> namespaces;
+
+        NamespaceRouter(String fileName, String... namespaces) {
+            this.fileName = fileName;
+            this.namespaces = new ArrayList<>();
+            for (String namespace : namespaces) {
+                if (namespace == null || namespace.isEmpty())
+                    throw new IllegalArgumentException("Namespaces must not be empty");
+                if (this.namespaces.contains(namespace))
+                    throw new IllegalArgumentException("Duplicate namespace " + namespace);
+                this.namespaces.add(namespace);
+            }
+        }
+
+        @Override
+        int getShardCount() {
+            return namespaces.size() + 1;
+        }
+
+        @Override
+        int getShard(String key) {
+            int shard = 0;
+            int matchLength = 0;
+            for (int i = 0; i < namespaces.size(); i++) {
+                String namespace = namespaces.get(i);
+                if (namespace.length() > matchLength && key.startsWith(namespace)) {
+                    shard = i + 1;
+                    matchLength = namespace.length();
+                }
+            }
+            return shard;
+        }
+
+        @Override
+        String getShardName(int shard) {
+            return shard == 0 ? fileName : fileName + "_" + namespaces.get(shard - 1);
+        }
+    }
+}
@@ -3,17 +3,40 @@ package in.notyouraveragedev.simplepreference;
 import android.content.Context;
 import android.content.SharedPreferences;
 
-import com.google.gson.Gson;
+import in.notyouraveragedev.simplepreference.codec.GsonCodec;
+import in.notyouraveragedev.simplepreference.codec.ObjectCodec;
+import in.notyouraveragedev.simplepreference.metrics.Operation;
+import in.notyouraveragedev.simplepreference.metrics.PreferenceMetrics;
+import in.notyouraveragedev.simplepreference.storage.FileStorage;
+import in.notyouraveragedev.simplepreference.storage.InMemoryStorage;
+import in.notyouraveragedev.simplepreference.storage.MappedLogStorage;
+import in.notyouraveragedev.simplepreference.storage.MultiProcessStorage;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
 
 /**
  * Simple Preference Manager provides method to modify and retrieve data from
- * Android SharedPreferences
+ * Android SharedPreferences, or any other storage backend implementing the SharedPreferences contract
  * <p>
  * Created by A Anand on 17-05-2020
  */
@@ -28,6 +51,28 @@ public class SimplePreferenceManager {
         private String fileName;
         private int mode;
         private boolean isObjectSupportNeeded;
+        private SharedPreferences storage;
+        private boolean isMappedLogStorageNeeded;
+        private boolean isMultiProcessStorageNeeded;
+        private ObjectCodec objectCodec;
+        private boolean isWriteBehindEnabled;
+        private int maxPendingWrites;
+        private long flushDelayMillis;
+        private Executor asyncExecutor;
+        private int objectCacheSize;
+        private int primitiveCacheSize;
+        private PreferenceMetrics metrics;
+        private boolean isBackgroundLoadingNeeded;
+        private int shardCount;
+        private String[] shardNamespaces;
+        private int blobThresholdLength;
+        private File blobDirectory;
+        private boolean isLargeValueOffloadingNeeded;
+        private int compressionThresholdLength = -1;
+        private SecretKey encryptionKey;
+        private boolean isKeyNameHashingNeeded;
+        private int decryptedCacheSize = EncryptedStorage.DEFAULT_DECRYPTED_CACHE_SIZE;
+        private long expirySweepIntervalMillis;
 
         /**
          * Constructor to initialize the SimplePreferenceManagerBuilder.
@@ -35,10 +80,22 @@ public class SimplePreferenceManager {
          * @param context the current context
          */
         public SimplePreferenceManagerBuilder(Context context) {
+            this();
             this.context = context;
+        }
+
+        /**
+         * Constructor to initialize the SimplePreferenceManagerBuilder without an Android Context,
+         * so that the SimplePreferenceManager can be used outside Android, for example in tests and benchmarks.
+         * <p>
+         * The data is kept in an {@link InMemoryStorage} unless a storage backend is specified using
+         * {@link #usingStorage(SharedPreferences)}, such as a {@link FileStorage}.
+         */
+        public SimplePreferenceManagerBuilder() {
             fileName = DEFAULT_PREFERENCE_FILE_NAME;
             mode = Context.MODE_PRIVATE;
             isObjectSupportNeeded = false;
+            isWriteBehindEnabled = false;
         }
 
         /**
@@ -53,7 +110,9 @@ public class SimplePreferenceManager {
         }
 
         /**
-         * Specifies the operation mode of the Shared Preference file
+         * Specifies the operation mode of the Shared Preference file.
+         * The Android SharedPreferences are not consistent across processes in any mode,
+         * use {@link #usingMultiProcessStorage()} for files shared by several processes.
          *
          * @param mode the operation mode
          * @return the SimplePreferenceManagerBuilder
@@ -63,6 +122,47 @@ public class SimplePreferenceManager {
             return this;
         }
 
+        /**
+         * Uses the specified storage backend instead of the Android SharedPreferences.
+         * The file name and operation mode are ignored in this case.
+         *
+         * @param storage the storage backend, for example a {@link MappedLogStorage}
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder usingStorage(SharedPreferences storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        /**
+         * Stores the data in a memory-mapped, append-only log file named after the file name,
+         * inside the files directory of the app, instead of the Android SharedPreferences XML file.
+         * Every write only appends the changed values to the file, instead of rewriting the whole file.
+         *
+         * @return the SimplePreferenceManagerBuilder
+         * @see MappedLogStorage
+         */
+        public SimplePreferenceManagerBuilder usingMappedLogStorage() {
+            this.isMappedLogStorageNeeded = true;
+            return this;
+        }
+
+        /**
+         * Stores the data in a file named after the file name, inside the files directory of the app, which can
+         * be read and written by several processes of the app at the same time. Commits of the processes are
+         * serialized using a file lock, and a process only reloads the file after another process committed.
+         * <p>
+         * The object and primitive caches are not supported in this mode, since they would hide
+         * the changes of other processes.
+         *
+         * @return the SimplePreferenceManagerBuilder
+         * @see MultiProcessStorage
+         */
+        public SimplePreferenceManagerBuilder usingMultiProcessStorage() {
+            this.isMultiProcessStorageNeeded = true;
+            return this;
+        }
+
         /**
          * Enables the capability to store and retrieve Custom Objects to and from a Shared Preference File
          *
@@ -73,181 +173,1256 @@ public class SimplePreferenceManager {
             return this;
         }
 
+        /**
+         * Enables the capability to store and retrieve Custom Objects to and from a Shared Preference File,
+         * converting the objects using the specified codec instead of the default {@link GsonCodec}.
+         * <p>
+         * Data stored using one codec cannot be read using another, so the codec of an existing file
+         * should not be changed.
+         *
+         * @param objectCodec the codec used to convert objects to and from the stored String
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withObjectStorageSupport(ObjectCodec objectCodec) {
+            this.isObjectSupportNeeded = true;
+            this.objectCodec = objectCodec;
+            return this;
+        }
+
+        /**
+         * Enables caching of the objects returned by {@link SimplePreferenceManager#fetchObject(String, Class)},
+         * so that repeated fetches of the same key do not deserialize the stored data again.
+         * Only has effect along with {@link #withObjectStorageSupport()}.
+         * <p>
+         * Cached objects are shared between callers, so they should not be modified after being fetched.
+         *
+         * @param maxSize the maximum number of objects to be cached, least recently used ones are evicted first
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withObjectCache(int maxSize) {
+            if (maxSize < 1)
+                throw new IllegalArgumentException("maxSize must be positive");
+            this.objectCacheSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Enables caching of the values returned by the int, long, float and boolean fetch methods.
+         * The values are cached unboxed, so that repeated fetches of the same keys, like feature flags
+         * checked on every frame, neither read the storage nor allocate when using the primitive overloads
+         * such as {@link SimplePreferenceManager#fetchBoolean(String, boolean)}.
+         *
+         * @param maxSize the maximum number of keys to be cached, the cache is emptied when it is full
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withPrimitiveCache(int maxSize) {
+            if (maxSize < 1)
+                throw new IllegalArgumentException("maxSize must be positive");
+            this.primitiveCacheSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Enables recording of the latency of every operation, the number of commits and the size in bytes
+         * of the data stored against every key into the specified PreferenceMetrics.
+         * The same PreferenceMetrics can be shared by several SimplePreferenceManagers.
+         *
+         * @param metrics the metrics to record into
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withMetrics(PreferenceMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Splits the keys over the specified number of files, using a consistent hash of the key.
+         * Every commit only rewrites the files containing the changed keys, and every file is loaded
+         * on the first access to one of its keys. The first file keeps the configured file name,
+         * the others are named after it with a suffix "_1", "_2"...
+         * <p>
+         * Changing the number of files later moves some keys to a different file, the values of those keys
+         * are not found anymore. A commit changing keys of multiple files is not atomic across the files.
+         *
+         * @param shardCount the number of files
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withSharding(int shardCount) {
+            if (shardCount < 1)
+                throw new IllegalArgumentException("shardCount must be at least 1");
+            this.shardCount = shardCount;
+            this.shardNamespaces = null;
+            return this;
+        }
+
+        /**
+         * Stores the keys starting with each of the specified namespaces in a separate file named after the
+         * configured file name with the namespace as suffix, for example "CustomFileName_user.". The remaining
+         * keys are stored in the configured file. Hence the namespaces must only contain characters valid in file names.
+         * <p>
+         * A commit changing keys of multiple files is not atomic across the files.
+         *
+         * @param namespaces the key prefixes, the longest matching prefix decides the file of a key
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withNamespaceSharding(String... namespaces) {
+            this.shardNamespaces = namespaces.clone();
+            this.shardCount = 0;
+            return this;
+        }
+
+        /**
+         * Compresses String values and objects longer than the threshold using Deflate, which shrinks the
+         * Shared Preference File and the time spent reading and rewriting it. Values stored before enabling
+         * the compression are still read as they are. The achieved ratio is reported by
+         * {@link SimplePreferenceManager#getCompressionStats()}.
+         *
+         * @param thresholdLength the length in characters above which a value is compressed
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withCompression(int thresholdLength) {
+            if (thresholdLength < 0)
+                throw new IllegalArgumentException("thresholdLength must not be negative");
+            this.compressionThresholdLength = thresholdLength;
+            return this;
+        }
+
+        /**
+         * Encrypts every stored value using AES-GCM with the specified key.
+         *
+         * @param key the AES key
+         * @return the SimplePreferenceManagerBuilder
+         * @see #withEncryption(SecretKey, boolean)
+         */
+        public SimplePreferenceManagerBuilder withEncryption(SecretKey key) {
+            return withEncryption(key, false);
+        }
+
+        /**
+         * Encrypts every stored value using AES-GCM with the specified key, each value with its own random IV.
+         * Only the values written are encrypted, and values stored before encryption was enabled stay readable.
+         * <p>
+         * The ciphers are kept per thread, so that a read or a write costs microseconds. Keys held by the
+         * Android Keystore cost milliseconds per value instead, so the key should rather be kept encrypted
+         * by a Keystore key and decrypted once at startup.
+         *
+         * @param key          the AES key
+         * @param hashKeyNames whether the key names are stored hashed as well, which needs a key whose bytes
+         *                     are accessible and is not supported along with namespace sharding
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withEncryption(SecretKey key, boolean hashKeyNames) {
+            if (key == null)
+                throw new IllegalArgumentException("Encryption key cannot be null");
+            this.encryptionKey = key;
+            this.isKeyNameHashingNeeded = hashKeyNames;
+            return this;
+        }
+
+        /**
+         * Sets the number of decrypted values kept in memory when encryption is enabled, 64 by default.
+         * Reading a cached value does not decrypt it again as long as it did not change, but cached values
+         * stay in clear on the heap, least recently read ones are evicted first.
+         * Only has effect along with {@link #withEncryption(SecretKey, boolean)}.
+         *
+         * @param maxSize the maximum number of decrypted values to be cached, 0 to decrypt the value on every read
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withDecryptedValueCache(int maxSize) {
+            if (maxSize < 0)
+                throw new IllegalArgumentException("maxSize must not be negative");
+            this.decryptedCacheSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Enables the save methods taking a time to live, sweeping the expired data every 15 minutes.
+         *
+         * @return the SimplePreferenceManagerBuilder
+         * @see #withExpiry(long, TimeUnit)
+         */
+        public SimplePreferenceManagerBuilder withExpiry() {
+            return withExpiry(DEFAULT_EXPIRY_SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+
+        /**
+         * Enables the save methods taking a time to live, used to keep cached data like API responses.
+         * Expired data is treated as missing as soon as it expires, and is removed from the Shared Preference
+         * File by a sweep running in background in batched commits, which keeps the file and its load time small.
+         * Not supported along with write-behind.
+         *
+         * @param sweepInterval the interval between two sweeps of the expired data
+         * @param unit          the unit of sweepInterval
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withExpiry(long sweepInterval, TimeUnit unit) {
+            if (sweepInterval <= 0)
+                throw new IllegalArgumentException("sweepInterval must be positive");
+            this.expirySweepIntervalMillis = Math.max(1, unit.toMillis(sweepInterval));
+            return this;
+        }
+
+        /**
+         * Writes String values and objects longer than the threshold into separate files inside the files
+         * directory of the app, keeping only a short reference in the Shared Preference File. The preference file
+         * then stays small, so that its commits and loads are fast, and large values are only read when fetched.
+         *
+         * @param thresholdLength the length in characters above which a value is written into a separate file
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withLargeValueOffloading(int thresholdLength) {
+            return withLargeValueOffloading(thresholdLength, null);
+        }
+
+        /**
+         * Writes String values and objects longer than the threshold into separate files inside the specified
+         * directory, keeping only a short reference in the storage.
+         *
+         * @param thresholdLength the length in characters above which a value is written into a separate file
+         * @param directory       the directory dedicated to the separate files, other files in it may be deleted
+         * @return the SimplePreferenceManagerBuilder
+         * @see #withLargeValueOffloading(int)
+         */
+        public SimplePreferenceManagerBuilder withLargeValueOffloading(int thresholdLength, File directory) {
+            if (thresholdLength < 0)
+                throw new IllegalArgumentException("thresholdLength must not be negative");
+            this.blobThresholdLength = thresholdLength;
+            this.blobDirectory = directory;
+            this.isLargeValueOffloadingNeeded = true;
+            return this;
+        }
+
+        /**
+         * Opens and loads the storage on a background thread, so that {@link #build()} returns immediately.
+         * Operations on the SimplePreferenceManager wait until the loading has completed, which can be
+         * observed using {@link SimplePreferenceManager#isLoaded()} and {@link SimplePreferenceManager#awaitLoaded()}.
+         *
+         * @return the SimplePreferenceManagerBuilder
+         * @see PreferencePreloader
+         */
+        public SimplePreferenceManagerBuilder withBackgroundLoading() {
+            this.isBackgroundLoadingNeeded = true;
+            return this;
+        }
+
+        /**
+         * Enables write-behind mode. Writes are held in an in-memory buffer, are visible to reads
+         * immediately and are written into the Shared Preference File as a single commit once
+         * the number of pending writes reaches maxPendingWrites, once flushDelayMillis has elapsed
+         * since the first pending write, or when {@link SimplePreferenceManager#flush()} is called.
+         * <p>
+         * In this mode the save methods return true once the data is accepted by the buffer,
+         * the result of the actual disk write is returned by {@link SimplePreferenceManager#flush()}.
+         *
+         * @param maxPendingWrites the number of pending writes that triggers a flush
+         * @param flushDelayMillis the maximum time in milliseconds a write stays in the buffer,
+         *                         0 to flush only on threshold or explicit flush
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withWriteBehind(int maxPendingWrites, long flushDelayMillis) {
+            if (maxPendingWrites < 1 || flushDelayMillis < 0)
+                throw new IllegalArgumentException("maxPendingWrites must be positive and flushDelayMillis must not be negative");
+            this.isWriteBehindEnabled = true;
+            this.maxPendingWrites = maxPendingWrites;
+            this.flushDelayMillis = flushDelayMillis;
+            return this;
+        }
+
+        /**
+         * Specifies the executor on which the asynchronous save / remove methods perform their writes.
+         * Writes are still applied one at a time in the order they were issued, even if the executor
+         * uses multiple threads. If not specified, the SimplePreferenceManager uses its own background thread.
+         *
+         * @param executor the executor to perform asynchronous writes on
+         * @return the SimplePreferenceManagerBuilder
+         */
+        public SimplePreferenceManagerBuilder withAsyncExecutor(Executor executor) {
+            this.asyncExecutor = executor;
+            return this;
+        }
+
         /**
          * Builds the SimplePreferenceManager using the configurations specified
          *
          * @return an instance of SimplePreferenceManager
          */
         public SimplePreferenceManager build() {
+            if (this.isMultiProcessStorageNeeded) {
+                if (this.isMappedLogStorageNeeded)
+                    throw new UnsupportedOperationException("Mapped log storage cannot be shared by several processes");
+                if (this.objectCacheSize > 0 || this.primitiveCacheSize > 0)
+                    throw new UnsupportedOperationException("Caches are not supported with multi-process storage");
+            }
+            if (this.isKeyNameHashingNeeded && this.shardNamespaces != null)
+                throw new UnsupportedOperationException("Namespace sharding is not supported with hashed key names");
+            if (this.expirySweepIntervalMillis > 0 && this.isWriteBehindEnabled)
+                throw new UnsupportedOperationException("Expiry is not supported with write-behind");
             SimplePreferenceManager simplePreferenceManager;
 
             if (this.isObjectSupportNeeded)
-                simplePreferenceManager = new SimplePreferenceManager(new Gson());
+                simplePreferenceManager = new SimplePreferenceManager(this.objectCodec != null ? this.objectCodec : new GsonCodec());
             else
                 simplePreferenceManager = new SimplePreferenceManager(null);
 
-            simplePreferenceManager.setSharedPreferences(getSharedPreferences(this.context, this.fileName, this.mode));
+            SharedPreferences storage;
+            if (this.isBackgroundLoadingNeeded) {
+                simplePreferenceManager.loadingStorage = new LoadingStorage(new Callable<SharedPreferences>() {
+                    @Override
+                    public SharedPreferences call() {
+                        long startTime = System.nanoTime();
+                        SharedPreferences loadedStorage = createStorage();
+                        // any read blocks until the data has been loaded
+                        loadedStorage.contains(fileName);
+                        if (metrics != null)
+                            metrics.recordLatency(Operation.LOAD, null, System.nanoTime() - startTime);
+                        return loadedStorage;
+                    }
+                });
+                storage = simplePreferenceManager.loadingStorage;
+            } else {
+                storage = createStorage();
+            }
+            if (this.metrics != null) {
+                // below the compression and the encryption, so that the sizes recorded are those written
+                simplePreferenceManager.metrics = this.metrics;
+                storage = new MeasuredStorage(storage, this.metrics);
+            }
+            if (this.encryptionKey != null) {
+                // compressed before being encrypted, since encrypted data does not compress
+                storage = new EncryptedStorage(storage, this.encryptionKey, this.isKeyNameHashingNeeded,
+                        this.decryptedCacheSize);
+            }
+            if (this.compressionThresholdLength >= 0) {
+                simplePreferenceManager.compressedStorage = new CompressedStorage(storage, this.compressionThresholdLength);
+                storage = simplePreferenceManager.compressedStorage;
+            }
+            if (this.expirySweepIntervalMillis > 0) {
+                simplePreferenceManager.expiringStorage = new ExpiringStorage(storage, this.expirySweepIntervalMillis);
+                storage = simplePreferenceManager.expiringStorage;
+            }
+            simplePreferenceManager.setSharedPreferences(storage);
+            if (this.isWriteBehindEnabled)
+                simplePreferenceManager.setWriteBehindBuffer(new WriteBehindBuffer(simplePreferenceManager.sharedPreferences,
+                        this.maxPendingWrites, this.flushDelayMillis));
+            if (this.isObjectSupportNeeded && this.objectCacheSize > 0)
+                simplePreferenceManager.objectCache = new ObjectCache(this.objectCacheSize);
+            if (this.primitiveCacheSize > 0)
+                simplePreferenceManager.primitiveCache = new PrimitiveCache(this.primitiveCacheSize);
+            simplePreferenceManager.registerCacheInvalidator();
+            if (this.asyncExecutor != null)
+                simplePreferenceManager.asyncExecutor = new SerialExecutor(this.asyncExecutor);
             return simplePreferenceManager;
         }
 
+        private SharedPreferences createStorage() {
+            if (!this.isLargeValueOffloadingNeeded)
+                return getStorage();
+            File directory = this.blobDirectory;
+            if (directory == null) {
+                if (this.context == null)
+                    throw new IllegalStateException("withLargeValueOffloading(int) needs a Context, specify the directory instead");
+                directory = new File(this.context.getFilesDir(), this.fileName + "_blobs");
+            }
+            return new BlobStorage(getStorage(), directory, this.blobThresholdLength);
+        }
+
+        private SharedPreferences getStorage() {
+            if (this.storage != null) {
+                if (this.shardCount > 0 || this.shardNamespaces != null)
+                    throw new UnsupportedOperationException("Sharding is not supported with a custom storage");
+                return this.storage;
+            }
+            if (this.context == null && this.isMappedLogStorageNeeded)
+                throw new IllegalStateException("usingMappedLogStorage() needs a Context, use usingStorage(MappedLogStorage.open(file)) instead");
+            if (this.context == null && this.isMultiProcessStorageNeeded)
+                throw new IllegalStateException("usingMultiProcessStorage() needs a Context, use usingStorage(MultiProcessStorage.open(file)) instead");
+            if (this.shardCount > 0 || this.shardNamespaces != null) {
+                ShardedStorage.Router router = this.shardNamespaces != null
+                        ? new ShardedStorage.NamespaceRouter(this.fileName, this.shardNamespaces)
+                        : new ShardedStorage.HashRouter(this.fileName, this.shardCount);
+                return new ShardedStorage(router, new ShardedStorage.ShardOpener() {
+                    @Override
+                    public SharedPreferences open(String shardName) {
+                        return openStorage(shardName);
+                    }
+                });
+            }
+            return openStorage(this.fileName);
+        }
+
+        private SharedPreferences openStorage(String fileName) {
+            if (this.context == null)
+                return new InMemoryStorage();
+            if (this.isMultiProcessStorageNeeded) {
+                try {
+                    return MultiProcessStorage.open(new File(this.context.getFilesDir(), fileName + ".mpstore"));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not open the multi-process storage " + fileName, e);
+                }
+            }
+            if (this.isMappedLogStorageNeeded) {
+                try {
+                    return MappedLogStorage.open(new File(this.context.getFilesDir(), fileName + ".mlog"));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not open the log storage " + fileName, e);
+                }
+            }
+            return getSharedPreferences(this.context, fileName, this.mode);
+        }
+
         private static SharedPreferences getSharedPreferences(Context context, String preferenceFileName, int mode) {
             return context.getSharedPreferences(preferenceFileName, mode);
         }
 
     }
 
+    private static final int DEFAULT_IMPORT_BATCH_SIZE = 500;
+    private static final long DEFAULT_EXPIRY_SWEEP_INTERVAL_MINUTES = 15;
+
+    /**
+     * Types a value can be stored as, tried in this order when reading a value of unknown type
+     */
+    private static final Class<?>[] STORED_TYPES =
+            {String.class, Integer.class, Boolean.class, Long.class, Float.class, Set.class};
+
     private SharedPreferences sharedPreferences;
-    private Gson gson;
+    private ObjectCodec objectCodec;
+    private WriteBehindBuffer writeBehindBuffer;
+    private SerialExecutor asyncExecutor;
+    private ObjectCache objectCache;
+    private PrimitiveCache primitiveCache;
+    private PreferenceMetrics metrics;
+    private LoadingStorage loadingStorage;
+    private CompressedStorage compressedStorage;
+    private ExpiringStorage expiringStorage;
+
+    /**
+     * Strong reference to the listener, since SharedPreferences only keeps a weak reference to it
+     */
+    private SharedPreferences.OnSharedPreferenceChangeListener cacheInvalidator;
+
+    /**
+     * Created on the first call to observe, also kept as a strong reference for the same reason
+     */
+    private ChangeDispatcher changeDispatcher;
+
+    /**
+     * Created on the first prefix query, kept in sync by the writes from then on
+     */
+    private volatile KeyIndex keyIndex;
+
+    /**
+     * Namespaces created by boundedNamespace, by prefix
+     */
+    private Map<String, BoundedNamespace> boundedNamespaces;
 
     private void setSharedPreferences(SharedPreferences sharedPreferences) {
         this.sharedPreferences = sharedPreferences;
     }
 
-    private SimplePreferenceManager(Gson gson) {
-        this.gson = gson;
+    private void setWriteBehindBuffer(WriteBehindBuffer writeBehindBuffer) {
+        this.writeBehindBuffer = writeBehindBuffer;
     }
 
-    private void checkObjectSupport() {
-        if (gson == null)
-            throw new UnsupportedOperationException("Object storage support not enabled for SimplePreferenceManager");
+    /**
+     * Returns the editor used for all the writes, which buffers the changes when write-behind is enabled
+     */
+    private SharedPreferences.Editor edit() {
+        if (writeBehindBuffer != null)
+            return writeBehindBuffer.edit();
+        return sharedPreferences.edit();
     }
 
     /**
-     * Method to save objects into shared preference.
-     * The object is serialize into json and is stored in shared preference.
-     *
-     * @param key   the key against which data needs to be stored
-     * @param value the object to be saved
-     * @return true is object was saved successfully, false if object could not be saved
+     * Returns the value of the key pending in the write-behind buffer,
+     * or {@link WriteBehindBuffer#NOT_BUFFERED} if the value needs to be read from shared preference
      */
-    public boolean saveObject(String key, Object value) throws UnsupportedOperationException {
-        checkObjectSupport();
-        if (value instanceof Serializable)
-            return sharedPreferences.edit().putString(key, gson.toJson(value)).commit();
-        else
-            throw new UnsupportedOperationException("Only Serializable objects can be saved in SharedPreferences");
+    private Object fetchBuffered(String key) {
+        if (writeBehindBuffer == null)
+            return WriteBehindBuffer.NOT_BUFFERED;
+        return writeBehindBuffer.get(key);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private static <T> T bufferedOrDefault(Object buffered, T defaultValue) {
+        return buffered == null ? defaultValue : (T) buffered;
     }
 
     /**
-     * Fetched the object stored against the key from shared preference.
-     * If object is not available, then null will be returned
+     * Writes all the changes pending in the write-behind buffer into the shared preference
+     * using a single commit. Does nothing if write-behind is not enabled.
      *
-     * @param key         the key against which object needs to be fetched
-     * @param targetClass the Class to which the object belongs to
-     * @return the object stored in the shared preference
+     * @return true if the pending changes were written successfully, otherwise returns false
      */
-    public Object fetchObject(String key, Class targetClass) throws UnsupportedOperationException {
-        checkObjectSupport();
-        Object storedData = sharedPreferences.getString(key, null);
-        if (storedData != null)
-            storedData = gson.fromJson((String) storedData, targetClass);
-        return storedData;
+    public boolean flush() {
+        if (writeBehindBuffer == null)
+            return true;
+        return writeBehindBuffer.flush();
     }
 
     /**
-     * Method to store String data into shared preference against the specified key.
+     * Writes all the changes pending in the write-behind buffer and stops its background flush thread.
+     * Writes made afterwards are written into the shared preference right away. Does nothing if
+     * write-behind is not enabled.
      *
-     * @param key   the key against which data needs to be stored
-     * @param value the data to be stored
-     * @return true, if data is stored successfully, otherwise returns false
+     * @return true if the pending changes were written successfully, otherwise returns false
      */
-    public boolean saveString(String key, String value) {
-        return sharedPreferences.edit().putString(key, value).commit();
+    public boolean close() {
+        if (writeBehindBuffer == null)
+            return true;
+        return writeBehindBuffer.close();
     }
 
     /**
-     * method to fetch String data stored in shared preference against the specified key.
+     * Method to check whether the storage has been loaded.
+     * Always true unless background loading is enabled using
+     * {@link SimplePreferenceManagerBuilder#withBackgroundLoading()}.
      *
-     * @param key the key against which data needs to be fetched
-     * @return the data stored against the specified key
+     * @return true if the storage is loaded and operations will not wait for it
      */
-    public String fetchString(String key) {
-        return sharedPreferences.getString(key, null);
+    public boolean isLoaded() {
+        return loadingStorage == null || loadingStorage.isLoaded();
     }
 
     /**
-     * Method to store Integer data into shared preference against the specified key.
-     *
-     * @param key   the key against which data needs to be stored
-     * @param value the data to be stored
-     * @return true, if data is stored successfully, otherwise returns false
+     * Blocks until the storage has been loaded
      */
-    public boolean saveInteger(String key, Integer value) {
-        return sharedPreferences.edit().putInt(key, value).commit();
+    public void awaitLoaded() throws InterruptedException {
+        if (loadingStorage != null)
+            loadingStorage.awaitLoaded();
     }
 
     /**
-     * method to fetch Integer data stored in shared preference against the specified key.
+     * Blocks until the storage has been loaded or the timeout elapses
      *
-     * @param key the key against which data needs to be fetched
-     * @return the data stored against the specified key
+     * @return true if the storage is loaded, false if the timeout elapsed
      */
-    public Integer fetchInteger(String key) {
-        return sharedPreferences.getInt(key, Integer.MIN_VALUE);
+    public boolean awaitLoaded(long timeout, TimeUnit unit) throws InterruptedException {
+        return loadingStorage == null || loadingStorage.awaitLoaded(timeout, unit);
     }
 
     /**
-     * Method to store Long data into shared preference against the specified key.
-     *
-     * @param key   the key against which data needs to be stored
-     * @param value the data to be stored
-     * @return true, if data is stored successfully, otherwise returns false
+     * @return the time taken to load the storage in background in nanoseconds, or -1 if background
+     * loading is not enabled or has not completed yet
      */
-    public boolean saveLong(String key, Long value) {
-        return sharedPreferences.edit().putLong(key, value).commit();
+    public long getLoadTimeNanos() {
+        return loadingStorage == null ? -1 : loadingStorage.getLoadTimeNanos();
+    }
+
+    private SimplePreferenceManager(ObjectCodec objectCodec) {
+        this.objectCodec = objectCodec;
+    }
+
+    private void registerCacheInvalidator() {
+        if (objectCache == null && primitiveCache == null)
+            return;
+        cacheInvalidator = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                // key is null when the preferences were cleared
+                if (objectCache != null)
+                    objectCache.invalidate(key);
+                if (primitiveCache != null)
+                    primitiveCache.invalidate(key);
+            }
+        };
+        sharedPreferences.registerOnSharedPreferenceChangeListener(cacheInvalidator);
     }
 
     /**
-     * method to fetch Long data stored in shared preference against the specified key.
-     *
-     * @param key the key against which data needs to be fetched
-     * @return the data stored against the specified key
+     * Removes the cached value of the key. Called after the write so that a concurrent
+     * fetch cannot cache the data read before the write.
      */
-    public Long fetchLong(String key) {
-        return sharedPreferences.getLong(key, Long.MIN_VALUE);
+    private void invalidateCachedValue(String key) {
+        if (objectCache != null)
+            objectCache.invalidate(key);
+        if (primitiveCache != null)
+            primitiveCache.invalidate(key);
+        KeyIndex index = keyIndex;
+        if (index != null)
+            index.refresh(key);
+    }
+
+    private void invalidateCachedValues(Set<String> keys) {
+        for (String key : keys)
+            invalidateCachedValue(key);
+    }
+
+    private void invalidateCachedValues() {
+        if (objectCache != null)
+            objectCache.invalidateAll();
+        if (primitiveCache != null)
+            primitiveCache.invalidate(null);
+        KeyIndex index = keyIndex;
+        if (index != null)
+            index.invalidate();
     }
 
     /**
-     * Method to store Boolean data into shared preference against the specified key.
+     * Returns the hit / miss counters of the object cache enabled using
+     * {@link SimplePreferenceManagerBuilder#withObjectCache(int)}
      *
-     * @param key   the key against which data needs to be stored
-     * @param value the data to be stored
-     * @return true, if data is stored successfully, otherwise returns false
+     * @return the current counters, or null if the object cache is not enabled
      */
-    public boolean saveBoolean(String key, Boolean value) {
-        return sharedPreferences.edit().putBoolean(key, value).commit();
+    public CacheStats getObjectCacheStats() {
+        return objectCache == null ? null : objectCache.getStats();
     }
 
     /**
-     * method to fetch Boolean data stored in shared preference against the specified key.
+     * Returns the hit / miss counters of the primitive cache enabled using
+     * {@link SimplePreferenceManagerBuilder#withPrimitiveCache(int)}
      *
-     * @param key the key against which data needs to be fetched
-     * @return the data stored against the specified key
+     * @return the current counters, or null if the primitive cache is not enabled
      */
-    public Boolean fetchBoolean(String key) {
-        return sharedPreferences.getBoolean(key, false);
+    public CacheStats getPrimitiveCacheStats() {
+        return primitiveCache == null ? null : primitiveCache.getStats();
     }
 
     /**
-     * Method to store Float data into shared preference against the specified key.
+     * Returns the counters of the compression enabled using {@link SimplePreferenceManagerBuilder#withCompression(int)}
      *
-     * @param key   the key against which data needs to be stored
-     * @param value the data to be stored
-     * @return true, if data is stored successfully, otherwise returns false
+     * @return the current counters, or null if the compression is not enabled
      */
-    public boolean saveFloat(String key, Float value) {
-        return sharedPreferences.edit().putFloat(key, value).commit();
+    public CompressionStats getCompressionStats() {
+        return compressedStorage == null ? null : compressedStorage.getStats();
     }
 
     /**
-     * Method to fetch Set of Strings data stored in shared preference against the specified key.
-     * If no data is found then an empty HashSet<String> will be returned.
+     * Creates a stream of the changes of the key, delivered to the observers subscribed to it.
+     * <p>
+     * All the observers share a single listener registered on the storage, which only notifies the observers
+     * of the changed key, so a change does not cost more as observers of other keys are added.
+     * The value is read as the given type: String, Integer, Long, Float, Boolean, Set for a Set of Strings,
+     * or any other class for an object, which needs object storage support.
      *
-     * @param key the key against which data needs to be fetched
+     * @param key  the key to be observed
+     * @param type the type the value of the key is read as
+     * @return the stream of changes, to be configured and subscribed to
+     */
+    public <T> PreferenceObservable<T> observe(String key, Class<T> type) {
+        if (key == null)
+            throw new IllegalArgumentException("Observed key cannot be null");
+        if (type == null)
+            throw new IllegalArgumentException("Observed type cannot be null");
+        if (!isObservableType(type))
+            checkObjectSupport();
+        return new PreferenceObservable<>(this, key, type);
+    }
+
+    synchronized ChangeDispatcher getChangeDispatcher() {
+        if (changeDispatcher == null) {
+            changeDispatcher = new ChangeDispatcher();
+            sharedPreferences.registerOnSharedPreferenceChangeListener(changeDispatcher);
+        }
+        return changeDispatcher;
+    }
+
+    private static boolean isObservableType(Class<?> type) {
+        return type == String.class || type == Integer.class || type == Long.class || type == Float.class
+                || type == Boolean.class || type == Set.class;
+    }
+
+    /**
+     * Reads the value delivered to the observers of the key
+     *
+     * @return the value read as the given type, or null if nothing is stored against the key
+     */
+    @SuppressWarnings({"unchecked"})
+    <T> T readObservedValue(String key, Class<T> type) {
+        if (!contains(key))
+            return null;
+        Object value;
+        if (type == String.class)
+            value = fetchString(key);
+        else if (type == Integer.class)
+            value = fetchInteger(key, 0);
+        else if (type == Long.class)
+            value = fetchLong(key, 0L);
+        else if (type == Float.class)
+            value = fetchFloat(key, 0f);
+        else if (type == Boolean.class)
+            value = fetchBoolean(key, false);
+        else if (type == Set.class)
+            value = fetchStringSet(key);
+        else
+            value = fetchObject(key, type);
+        return (T) value;
+    }
+
+    private synchronized SerialExecutor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = new SerialExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SimplePreference-Async");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }));
+        }
+        return asyncExecutor;
+    }
+
+    private PreferenceFuture submit(Callable<Boolean> write) {
+        PreferenceFuture future = new PreferenceFuture(write);
+        getAsyncExecutor().execute(future);
+        return future;
+    }
+
+    String encodeObject(String key, Object value) {
+        long startTime = startTiming();
+        String encoded = objectCodec.encode(value);
+        recordTiming(Operation.ENCODE, key, startTime);
+        return encoded;
+    }
+
+    private Object decodeObject(String key, String data, Class<?> targetClass) {
+        long startTime = startTiming();
+        Object decoded = objectCodec.decode(data, targetClass);
+        recordTiming(Operation.DECODE, key, startTime);
+        return decoded;
+    }
+
+    private long startTiming() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    private void recordTiming(Operation operation, String key, long startTime) {
+        if (metrics != null)
+            metrics.recordLatency(operation, key, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Returns the metrics collected by this SimplePreferenceManager, enabled using
+     * {@link SimplePreferenceManagerBuilder#withMetrics(PreferenceMetrics)}
+     *
+     * @return the metrics, or null if metrics are not enabled
+     */
+    public PreferenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    void checkObjectSupport() {
+        if (objectCodec == null)
+            throw new UnsupportedOperationException("Object storage support not enabled for SimplePreferenceManager");
+    }
+
+    /**
+     * Returns an editor storing the expiry time of the key along with its value
+     */
+    private SharedPreferences.Editor expiringEdit(String key, long timeToLive, TimeUnit unit) {
+        if (expiringStorage == null)
+            throw new UnsupportedOperationException("Expiry support not enabled for SimplePreferenceManager");
+        if (timeToLive <= 0)
+            throw new IllegalArgumentException("timeToLive must be positive");
+        return edit().putLong(ExpiringStorage.expiryKey(key), System.currentTimeMillis() + unit.toMillis(timeToLive));
+    }
+
+    /**
+     * Checked before the caches, which keep the values until they are invalidated by the sweep
+     */
+    private boolean isExpired(String key) {
+        return expiringStorage != null && expiringStorage.isExpired(key);
+    }
+
+    /**
+     * Method to save objects into shared preference.
+     * The object is serialized using the configured ObjectCodec (json by default) and is stored in shared preference.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the object to be saved
+     * @return true is object was saved successfully, false if object could not be saved
+     */
+    public boolean saveObject(String key, Object value) throws UnsupportedOperationException {
+        long startTime = startTiming();
+        try {
+            checkObjectSupport();
+            if (value instanceof Serializable) {
+                boolean isSaved = edit().putString(key, encodeObject(key, value)).commit();
+                invalidateCachedValue(key);
+                return isSaved;
+            } else
+                throw new UnsupportedOperationException("Only Serializable objects can be saved in SharedPreferences");
+        } finally {
+            recordTiming(Operation.SAVE_OBJECT, key, startTime);
+        }
+    }
+
+    /**
+     * Method to save objects into shared preference, which expire once the time to live has elapsed, for example
+     * cached responses. Needs expiry support enabled using {@link SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @param key        the key against which data needs to be stored
+     * @param value      the object to be saved
+     * @param timeToLive the time after which the object is treated as missing and removed
+     * @param unit       the unit of timeToLive
+     * @return true is object was saved successfully, false if object could not be saved
+     */
+    public boolean saveObject(String key, Object value, long timeToLive, TimeUnit unit) throws UnsupportedOperationException {
+        long startTime = startTiming();
+        try {
+            checkObjectSupport();
+            if (value instanceof Serializable) {
+                boolean isSaved = expiringEdit(key, timeToLive, unit).putString(key, encodeObject(key, value)).commit();
+                invalidateCachedValue(key);
+                return isSaved;
+            } else
+                throw new UnsupportedOperationException("Only Serializable objects can be saved in SharedPreferences");
+        } finally {
+            recordTiming(Operation.SAVE_OBJECT, key, startTime);
+        }
+    }
+
+    /**
+     * Fetched the object stored against the key from shared preference.
+     * If object is not available, then null will be returned
+     *
+     * @param key         the key against which object needs to be fetched
+     * @param targetClass the Class to which the object belongs to
+     * @return the object stored in the shared preference
+     */
+    public Object fetchObject(String key, Class targetClass) throws UnsupportedOperationException {
+        long startTime = startTiming();
+        try {
+            checkObjectSupport();
+            long cacheGeneration = 0;
+            if (objectCache != null) {
+                if (isExpired(key))
+                    return null;
+                Object cachedData = objectCache.get(key, targetClass);
+                if (cachedData != null)
+                    return cachedData;
+                cacheGeneration = objectCache.getGeneration();
+            }
+            Object storedData = readString(key);
+            if (storedData != null) {
+                storedData = decodeObject(key, (String) storedData, targetClass);
+                if (objectCache != null)
+                    objectCache.put(cacheGeneration, key, targetClass, storedData);
+            }
+            return storedData;
+        } finally {
+            recordTiming(Operation.FETCH_OBJECT, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store String data into shared preference against the specified key.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveString(String key, String value) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = edit().putString(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_STRING, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store String data into shared preference against the specified key, which expires once the
+     * time to live has elapsed. Needs expiry support enabled using {@link SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @param key        the key against which data needs to be stored
+     * @param value      the data to be stored
+     * @param timeToLive the time after which the data is treated as missing and removed
+     * @param unit       the unit of timeToLive
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveString(String key, String value, long timeToLive, TimeUnit unit) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = expiringEdit(key, timeToLive, unit).putString(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_STRING, key, startTime);
+        }
+    }
+
+    /**
+     * method to fetch String data stored in shared preference against the specified key.
+     *
+     * @param key the key against which data needs to be fetched
+     * @return the data stored against the specified key
+     */
+    public String fetchString(String key) {
+        long startTime = startTiming();
+        try {
+            return readString(key);
+        } finally {
+            recordTiming(Operation.FETCH_STRING, key, startTime);
+        }
+    }
+
+    private String readString(String key) {
+        Object buffered = fetchBuffered(key);
+        if (buffered != WriteBehindBuffer.NOT_BUFFERED)
+            return bufferedOrDefault(buffered, null);
+        return sharedPreferences.getString(key, null);
+    }
+
+    /**
+     * Method to store Integer data into shared preference against the specified key.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveInteger(String key, Integer value) {
+        return saveInteger(key, value.intValue());
+    }
+
+    /**
+     * Method to store int data into shared preference against the specified key, without boxing the value.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveInteger(String key, int value) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = edit().putInt(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_INTEGER, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store int data into shared preference against the specified key, which expires once the
+     * time to live has elapsed. Needs expiry support enabled using {@link SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @param key        the key against which data needs to be stored
+     * @param value      the data to be stored
+     * @param timeToLive the time after which the data is treated as missing and removed
+     * @param unit       the unit of timeToLive
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveInteger(String key, int value, long timeToLive, TimeUnit unit) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = expiringEdit(key, timeToLive, unit).putInt(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_INTEGER, key, startTime);
+        }
+    }
+
+    /**
+     * method to fetch Integer data stored in shared preference against the specified key.
+     *
+     * @param key the key against which data needs to be fetched
+     * @return the data stored against the specified key
+     */
+    public Integer fetchInteger(String key) {
+        return fetchInteger(key, Integer.MIN_VALUE);
+    }
+
+    /**
+     * method to fetch int data stored in shared preference against the specified key, without boxing the value.
+     *
+     * @param key          the key against which data needs to be fetched
+     * @param defaultValue the value to be returned if no data is stored against the key
+     * @return the data stored against the specified key, or the default value
+     */
+    public int fetchInteger(String key, int defaultValue) {
+        long startTime = startTiming();
+        try {
+            return (int) readPrimitive(key, PrimitiveCache.TYPE_INT, defaultValue);
+        } finally {
+            recordTiming(Operation.FETCH_INTEGER, key, startTime);
+        }
+    }
+
+    /**
+     * Reads an int, long, float or boolean value as its bits, from the write-behind buffer, the primitive cache
+     * or the storage, in this order. Nothing is allocated when the value is found in the primitive cache.
+     */
+    private long readPrimitive(String key, byte type, long defaultBits) {
+        Object buffered = fetchBuffered(key);
+        if (buffered != WriteBehindBuffer.NOT_BUFFERED)
+            return buffered == null ? defaultBits : toBits(buffered, type);
+        if (primitiveCache == null)
+            return readStoredPrimitive(key, type, defaultBits);
+        if (isExpired(key))
+            return defaultBits;
+
+        long generation;
+        synchronized (primitiveCache) {
+            byte cachedType = primitiveCache.lookup(key, type);
+            if (cachedType == type)
+                return primitiveCache.lastValue();
+            if (cachedType == PrimitiveCache.TYPE_ABSENT)
+                return defaultBits;
+            generation = primitiveCache.getGeneration();
+        }
+        if (!sharedPreferences.contains(key)) {
+            primitiveCache.put(generation, key, PrimitiveCache.TYPE_ABSENT, 0);
+            return defaultBits;
+        }
+        long value = readStoredPrimitive(key, type, defaultBits);
+        primitiveCache.put(generation, key, type, value);
+        return value;
+    }
+
+    private long readStoredPrimitive(String key, byte type, long defaultBits) {
+        switch (type) {
+            case PrimitiveCache.TYPE_INT:
+                return sharedPreferences.getInt(key, (int) defaultBits);
+            case PrimitiveCache.TYPE_LONG:
+                return sharedPreferences.getLong(key, defaultBits);
+            case PrimitiveCache.TYPE_FLOAT:
+                return Float.floatToRawIntBits(sharedPreferences.getFloat(key, Float.intBitsToFloat((int) defaultBits)));
+            default:
+                return sharedPreferences.getBoolean(key, defaultBits != 0) ? 1 : 0;
+        }
+    }
+
+    /**
+     * Converts a buffered value into its bits, throwing ClassCastException if it is of another type,
+     * like SharedPreferences does
+     */
+    private static long toBits(Object value, byte type) {
+        switch (type) {
+            case PrimitiveCache.TYPE_INT:
+                return (Integer) value;
+            case PrimitiveCache.TYPE_LONG:
+                return (Long) value;
+            case PrimitiveCache.TYPE_FLOAT:
+                return Float.floatToRawIntBits((Float) value);
+            default:
+                return (Boolean) value ? 1 : 0;
+        }
+    }
+
+    /**
+     * Method to store Long data into shared preference against the specified key.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveLong(String key, Long value) {
+        return saveLong(key, value.longValue());
+    }
+
+    /**
+     * Method to store long data into shared preference against the specified key, without boxing the value.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveLong(String key, long value) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = edit().putLong(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_LONG, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store long data into shared preference against the specified key, which expires once the
+     * time to live has elapsed. Needs expiry support enabled using {@link SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @param key        the key against which data needs to be stored
+     * @param value      the data to be stored
+     * @param timeToLive the time after which the data is treated as missing and removed
+     * @param unit       the unit of timeToLive
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveLong(String key, long value, long timeToLive, TimeUnit unit) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = expiringEdit(key, timeToLive, unit).putLong(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_LONG, key, startTime);
+        }
+    }
+
+    /**
+     * method to fetch Long data stored in shared preference against the specified key.
+     *
+     * @param key the key against which data needs to be fetched
+     * @return the data stored against the specified key
+     */
+    public Long fetchLong(String key) {
+        return fetchLong(key, Long.MIN_VALUE);
+    }
+
+    /**
+     * method to fetch long data stored in shared preference against the specified key, without boxing the value.
+     *
+     * @param key          the key against which data needs to be fetched
+     * @param defaultValue the value to be returned if no data is stored against the key
+     * @return the data stored against the specified key, or the default value
+     */
+    public long fetchLong(String key, long defaultValue) {
+        long startTime = startTiming();
+        try {
+            return readPrimitive(key, PrimitiveCache.TYPE_LONG, defaultValue);
+        } finally {
+            recordTiming(Operation.FETCH_LONG, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store Boolean data into shared preference against the specified key.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveBoolean(String key, Boolean value) {
+        return saveBoolean(key, value.booleanValue());
+    }
+
+    /**
+     * Method to store boolean data into shared preference against the specified key, without boxing the value.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveBoolean(String key, boolean value) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = edit().putBoolean(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_BOOLEAN, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store boolean data into shared preference against the specified key, which expires once the
+     * time to live has elapsed. Needs expiry support enabled using {@link SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @param key        the key against which data needs to be stored
+     * @param value      the data to be stored
+     * @param timeToLive the time after which the data is treated as missing and removed
+     * @param unit       the unit of timeToLive
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveBoolean(String key, boolean value, long timeToLive, TimeUnit unit) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = expiringEdit(key, timeToLive, unit).putBoolean(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_BOOLEAN, key, startTime);
+        }
+    }
+
+    /**
+     * method to fetch Boolean data stored in shared preference against the specified key.
+     *
+     * @param key the key against which data needs to be fetched
+     * @return the data stored against the specified key
+     */
+    public Boolean fetchBoolean(String key) {
+        return fetchBoolean(key, false);
+    }
+
+    /**
+     * method to fetch boolean data stored in shared preference against the specified key, without boxing the value.
+     *
+     * @param key          the key against which data needs to be fetched
+     * @param defaultValue the value to be returned if no data is stored against the key
+     * @return the data stored against the specified key, or the default value
+     */
+    public boolean fetchBoolean(String key, boolean defaultValue) {
+        long startTime = startTiming();
+        try {
+            return readPrimitive(key, PrimitiveCache.TYPE_BOOLEAN, defaultValue ? 1 : 0) != 0;
+        } finally {
+            recordTiming(Operation.FETCH_BOOLEAN, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store Float data into shared preference against the specified key.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveFloat(String key, Float value) {
+        return saveFloat(key, value.floatValue());
+    }
+
+    /**
+     * Method to store float data into shared preference against the specified key, without boxing the value.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveFloat(String key, float value) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = edit().putFloat(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_FLOAT, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store float data into shared preference against the specified key, which expires once the
+     * time to live has elapsed. Needs expiry support enabled using {@link SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @param key        the key against which data needs to be stored
+     * @param value      the data to be stored
+     * @param timeToLive the time after which the data is treated as missing and removed
+     * @param unit       the unit of timeToLive
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveFloat(String key, float value, long timeToLive, TimeUnit unit) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = expiringEdit(key, timeToLive, unit).putFloat(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_FLOAT, key, startTime);
+        }
+    }
+
+    /**
+     * Method to fetch Set of Strings data stored in shared preference against the specified key.
+     * If no data is found then an empty HashSet<String> will be returned.
+     *
+     * @param key the key against which data needs to be fetched
      * @return the data stored against the specified key
      */
     public Set<String> fetchStringSet(String key) {
-        return sharedPreferences.getStringSet(key, new HashSet<String>());
+        long startTime = startTiming();
+        try {
+            Object buffered = fetchBuffered(key);
+            if (buffered != WriteBehindBuffer.NOT_BUFFERED)
+                return bufferedOrDefault(buffered, new HashSet<String>());
+            return sharedPreferences.getStringSet(key, new HashSet<String>());
+        } finally {
+            recordTiming(Operation.FETCH_STRING_SET, key, startTime);
+        }
     }
 
     /**
@@ -258,7 +1433,35 @@ public class SimplePreferenceManager {
      * @return true, if data is stored successfully, otherwise returns false
      */
     public boolean saveStringSet(String key, Set<String> value) {
-        return sharedPreferences.edit().putStringSet(key, value).commit();
+        long startTime = startTiming();
+        try {
+            boolean isSaved = edit().putStringSet(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_STRING_SET, key, startTime);
+        }
+    }
+
+    /**
+     * Method to store Set of Strings data into shared preference against the specified key, which expires once the
+     * time to live has elapsed. Needs expiry support enabled using {@link SimplePreferenceManagerBuilder#withExpiry()}.
+     *
+     * @param key        the key against which data needs to be stored
+     * @param value      the data to be stored
+     * @param timeToLive the time after which the data is treated as missing and removed
+     * @param unit       the unit of timeToLive
+     * @return true, if data is stored successfully, otherwise returns false
+     */
+    public boolean saveStringSet(String key, Set<String> value, long timeToLive, TimeUnit unit) {
+        long startTime = startTiming();
+        try {
+            boolean isSaved = expiringEdit(key, timeToLive, unit).putStringSet(key, value).commit();
+            invalidateCachedValue(key);
+            return isSaved;
+        } finally {
+            recordTiming(Operation.SAVE_STRING_SET, key, startTime);
+        }
     }
 
     /**
@@ -268,7 +1471,23 @@ public class SimplePreferenceManager {
      * @return the data stored against the specified key
      */
     public Float fetchFloat(String key) {
-        return sharedPreferences.getFloat(key, Float.MIN_VALUE);
+        return fetchFloat(key, Float.MIN_VALUE);
+    }
+
+    /**
+     * method to fetch float data stored in shared preference against the specified key, without boxing the value.
+     *
+     * @param key          the key against which data needs to be fetched
+     * @param defaultValue the value to be returned if no data is stored against the key
+     * @return the data stored against the specified key, or the default value
+     */
+    public float fetchFloat(String key, float defaultValue) {
+        long startTime = startTiming();
+        try {
+            return Float.intBitsToFloat((int) readPrimitive(key, PrimitiveCache.TYPE_FLOAT, Float.floatToRawIntBits(defaultValue)));
+        } finally {
+            recordTiming(Operation.FETCH_FLOAT, key, startTime);
+        }
     }
 
     /**
@@ -278,7 +1497,14 @@ public class SimplePreferenceManager {
      * @return true if data was removed successfully, otherwise returns false
      */
     public Boolean removeData(String key) {
-        return sharedPreferences.edit().remove(key).commit();
+        long startTime = startTiming();
+        try {
+            boolean isRemoved = edit().remove(key).commit();
+            invalidateCachedValue(key);
+            return isRemoved;
+        } finally {
+            recordTiming(Operation.REMOVE_DATA, key, startTime);
+        }
     }
 
 
@@ -289,9 +1515,281 @@ public class SimplePreferenceManager {
      * @return true if some data is present against the specified key, otherwise returns false
      */
     public Boolean contains(String key) {
+        long startTime = startTiming();
+        try {
+            return isStored(key);
+        } finally {
+            recordTiming(Operation.CONTAINS, key, startTime);
+        }
+    }
+
+    boolean isStored(String key) {
+        Object buffered = fetchBuffered(key);
+        if (buffered != WriteBehindBuffer.NOT_BUFFERED)
+            return buffered != null;
         return sharedPreferences.contains(key);
     }
 
+    /**
+     * Method to fetch all the data stored against keys starting with the specified prefix, for example "feature."
+     * <p>
+     * The keys are looked up in a sorted index of the stored keys instead of copying all the data, the index is
+     * built on the first call and kept up to date afterwards. Objects are returned in their stored form,
+     * use {@link #fetchObject(String, Class)} to decode them.
+     *
+     * @param prefix the prefix of the keys to be fetched, an empty prefix fetches all the data
+     * @return the data stored against the matching keys, in ascending order of the keys
+     */
+    public Map<String, ?> fetchAllWithPrefix(String prefix) {
+        long startTime = startTiming();
+        try {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (Map.Entry<String, Class<?>> entry : getKeyIndex().withPrefix(prefix).entrySet()) {
+                Object value = readIndexedValue(entry.getKey(), entry.getValue());
+                if (value != null)
+                    values.put(entry.getKey(), value);
+            }
+            return values;
+        } finally {
+            recordTiming(Operation.FETCH_ALL_WITH_PREFIX, prefix, startTime);
+        }
+    }
+
+    /**
+     * Method to remove all the data stored against keys starting with the specified prefix, using a single commit.
+     * The keys are looked up in the same index as {@link #fetchAllWithPrefix(String)}.
+     *
+     * @param prefix the prefix of the keys to be removed
+     * @return true if the data was removed successfully or no key matched, otherwise returns false
+     */
+    public boolean removeAllWithPrefix(String prefix) {
+        long startTime = startTiming();
+        try {
+            return removeKeys(new ArrayList<>(getKeyIndex().withPrefix(prefix).keySet()));
+        } finally {
+            recordTiming(Operation.REMOVE_ALL_WITH_PREFIX, prefix, startTime);
+        }
+    }
+
+    /**
+     * Removes the keys using a single commit
+     */
+    boolean removeKeys(List<String> keys) {
+        if (keys.isEmpty())
+            return true;
+        SharedPreferences.Editor editor = edit();
+        for (String key : keys)
+            editor.remove(key);
+        boolean isRemoved = editor.commit();
+        for (String key : keys)
+            invalidateCachedValue(key);
+        return isRemoved;
+    }
+
+    /**
+     * Returns the namespace of the keys starting with the specified prefix, whose number of entries and stored size
+     * can be bounded, removing the least recently used keys. Used to keep cached data, like API responses, without
+     * letting the Shared Preference File grow. The same namespace is returned for the same prefix.
+     *
+     * @param prefix the prefix of the keys of the namespace, for example "cache."
+     * @return the namespace, to be bounded using {@link BoundedNamespace#withMaxEntries(int)}
+     * and {@link BoundedNamespace#withMaxBytes(long)}
+     */
+    public synchronized BoundedNamespace boundedNamespace(String prefix) {
+        if (prefix == null || prefix.isEmpty())
+            throw new IllegalArgumentException("Namespace prefix cannot be empty");
+        if (boundedNamespaces == null)
+            boundedNamespaces = new HashMap<>();
+        BoundedNamespace namespace = boundedNamespaces.get(prefix);
+        if (namespace == null) {
+            namespace = new BoundedNamespace(this, prefix);
+            boundedNamespaces.put(prefix, namespace);
+        }
+        return namespace;
+    }
+
+    /**
+     * Saves the String value and removes the evicted keys using a single commit
+     *
+     * @param timeToLive the time to live of the value, or 0 if it does not expire
+     */
+    boolean saveEvicting(String key, String value, long timeToLive, TimeUnit unit, List<String> evictedKeys,
+                         Operation operation) {
+        long startTime = startTiming();
+        try {
+            SharedPreferences.Editor editor = timeToLive > 0 ? expiringEdit(key, timeToLive, unit) : edit();
+            editor.putString(key, value);
+            for (String evictedKey : evictedKeys)
+                editor.remove(evictedKey);
+            boolean isSaved = editor.commit();
+            invalidateCachedValue(key);
+            for (String evictedKey : evictedKeys)
+                invalidateCachedValue(evictedKey);
+            return isSaved;
+        } finally {
+            recordTiming(operation, key, startTime);
+        }
+    }
+
+    void registerStorageListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        sharedPreferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * Reads the value of the key whatever its type
+     *
+     * @return the value, or null if nothing is stored against the key
+     */
+    Object fetchStoredValue(String key) {
+        getKeyIndex();
+        return readIndexedValue(key, KeyIndex.UNKNOWN_TYPE);
+    }
+
+    /**
+     * Method to write all the stored data into the stream, one entry at a time, without copying all the data.
+     * The stream is flushed but not closed.
+     *
+     * @param out    the stream to write to
+     * @param format the format of the export
+     * @return the number of entries written
+     * @throws IOException if the stream could not be written
+     */
+    public int exportTo(OutputStream out, ExportFormat format) throws IOException {
+        long startTime = startTiming();
+        try {
+            EntryStreams.EntryWriter writer = EntryStreams.newWriter(format, out);
+            int count = 0;
+            for (Map.Entry<String, Class<?>> entry : getKeyIndex().withPrefix("").entrySet()) {
+                Object value = readIndexedValue(entry.getKey(), entry.getValue());
+                if (value != null) {
+                    writer.write(entry.getKey(), value);
+                    count++;
+                }
+            }
+            writer.finish();
+            return count;
+        } finally {
+            recordTiming(Operation.EXPORT, null, startTime);
+        }
+    }
+
+    /**
+     * Method to store the data exported using {@link #exportTo(OutputStream, ExportFormat)},
+     * committed in batches of 500 entries.
+     *
+     * @see #importFrom(InputStream, ExportFormat, int)
+     */
+    public int importFrom(InputStream in, ExportFormat format) throws IOException {
+        return importFrom(in, format, DEFAULT_IMPORT_BATCH_SIZE);
+    }
+
+    /**
+     * Method to store the data exported using {@link #exportTo(OutputStream, ExportFormat)}.
+     * <p>
+     * The entries are read one at a time and committed in batches, so that neither the whole export nor a single
+     * huge commit needs to be held in memory. Imported entries replace the data stored against the same keys,
+     * other data is kept. If reading fails, the batches committed so far stay stored. The stream is not closed.
+     *
+     * @param in        the stream to read from
+     * @param format    the format of the export
+     * @param batchSize the number of entries stored using a single commit
+     * @return the number of entries imported
+     * @throws IOException if the stream could not be read, is not a valid export,
+     *                     or a batch could not be committed
+     */
+    public int importFrom(InputStream in, ExportFormat format, int batchSize) throws IOException {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Import batch size must be positive");
+        long startTime = startTiming();
+        try {
+            EntryStreams.EntryReader reader = EntryStreams.newReader(format, in);
+            Object[] entry = new Object[2];
+            List<String> batchKeys = new ArrayList<>();
+            SharedPreferences.Editor editor = edit();
+            int count = 0;
+            while (reader.next(entry)) {
+                String key = (String) entry[0];
+                putValue(editor, key, entry[1]);
+                batchKeys.add(key);
+                count++;
+                if (batchKeys.size() == batchSize) {
+                    commitImportBatch(editor, batchKeys);
+                    editor = edit();
+                }
+            }
+            if (!batchKeys.isEmpty())
+                commitImportBatch(editor, batchKeys);
+            return count;
+        } finally {
+            recordTiming(Operation.IMPORT, null, startTime);
+        }
+    }
+
+    private void commitImportBatch(SharedPreferences.Editor editor, List<String> keys) throws IOException {
+        boolean isSaved = editor.commit();
+        for (String key : keys)
+            invalidateCachedValue(key);
+        keys.clear();
+        if (!isSaved)
+            throw new IOException("Could not store the imported data");
+    }
+
+    private synchronized KeyIndex getKeyIndex() {
+        if (keyIndex == null) {
+            KeyIndex index = new KeyIndex(this, sharedPreferences);
+            sharedPreferences.registerOnSharedPreferenceChangeListener(index);
+            keyIndex = index;
+        }
+        return keyIndex;
+    }
+
+    /**
+     * Reads the value of an indexed key using the type hint of the index, falling back to
+     * trying every type if the hint is unknown or outdated
+     *
+     * @return the value, or null if nothing is stored against the key
+     */
+    private Object readIndexedValue(String key, Class<?> type) {
+        Object buffered = fetchBuffered(key);
+        if (buffered != WriteBehindBuffer.NOT_BUFFERED)
+            return buffered;
+        if (!sharedPreferences.contains(key))
+            return null;
+        if (type != KeyIndex.UNKNOWN_TYPE) {
+            try {
+                return readStoredValue(key, type);
+            } catch (ClassCastException ignored) {
+                // the type changed since it was indexed
+            }
+        }
+        for (Class<?> storedType : STORED_TYPES) {
+            if (storedType == type)
+                continue;
+            try {
+                Object value = readStoredValue(key, storedType);
+                keyIndex.setType(key, storedType);
+                return value;
+            } catch (ClassCastException ignored) {
+                // stored as another type
+            }
+        }
+        return null;
+    }
+
+    private Object readStoredValue(String key, Class<?> type) {
+        if (type == String.class)
+            return sharedPreferences.getString(key, null);
+        if (type == Integer.class)
+            return sharedPreferences.getInt(key, 0);
+        if (type == Boolean.class)
+            return sharedPreferences.getBoolean(key, false);
+        if (type == Long.class)
+            return sharedPreferences.getLong(key, 0L);
+        if (type == Float.class)
+            return sharedPreferences.getFloat(key, 0f);
+        return sharedPreferences.getStringSet(key, null);
+    }
+
     /**
      * Method to remove all the data stored in shared preference.
      * Using apply instead of commit here since
@@ -301,105 +1799,422 @@ public class SimplePreferenceManager {
      * since deletion will be performed in background
      */
     public void removeAll() {
-        sharedPreferences.edit().clear().apply();
+        long startTime = startTiming();
+        try {
+            edit().clear().apply();
+            invalidateCachedValues();
+        } finally {
+            recordTiming(Operation.REMOVE_ALL, null, startTime);
+        }
     }
 
-    @SuppressWarnings({"unchecked"})
-    public boolean putAll(Map<String, ?> keyValuePairs) {
-        Object toCheckType = keyValuePairs.entrySet().iterator().next().getValue();
-
-        if (toCheckType instanceof Long) {
-            return putAllLong((Map<String, Long>) keyValuePairs);
-        } else if (toCheckType instanceof String) {
-            return putAllString((Map<String, String>) keyValuePairs);
-        } else if (toCheckType instanceof Integer) {
-            return putAllInteger((Map<String, Integer>) keyValuePairs);
-        } else if (toCheckType instanceof Boolean) {
-            return putAllBoolean((Map<String, Boolean>) keyValuePairs);
-        } else if (toCheckType instanceof Float) {
-            return putAllFloat((Map<String, Float>) keyValuePairs);
-        } else if (toCheckType instanceof Set) {
-            Object value = ((Set<?>) toCheckType).iterator().next();
-            if (value instanceof String) {
-                return putAllStringSet((Map<String, Set<String>>) keyValuePairs);
-            } else {
-                throw new UnsupportedOperationException("Only Set<String> can be stored in SharedPreferences");
-            }
-        } else if (toCheckType instanceof Serializable) {
-            return putAllSerializable((Map<String, ? extends Serializable>) keyValuePairs);
-        } else {
-            throw new UnsupportedOperationException("Only Serializable objects can be stored in SharedPreferences");
+    /**
+     * Applies several changes atomically using a single commit, so that readers never see only a part of them.
+     * <pre>
+     * preferenceManager.runInTransaction(editor -&gt; editor
+     *         .putString("token", token)
+     *         .putLong("expiry", expiry)
+     *         .putObject("user", user));
+     * </pre>
+     * If the transaction throws, none of its changes are applied and the exception is propagated.
+     * If the commit fails, the previous values of the changed keys are restored.
+     * With sharding enabled, the changes are only atomic if all the changed keys belong to the same file.
+     *
+     * @param transaction the block recording the changes
+     * @return true if the changes were stored successfully, otherwise returns false
+     */
+    public boolean runInTransaction(PreferenceTransaction transaction) {
+        long startTime = startTiming();
+        try {
+            TransactionEditor transactionEditor = new TransactionEditor(this);
+            transaction.execute(transactionEditor);
+
+            // previous values are only needed to roll back the in-memory view if the commit fails,
+            // only the changed keys are read unless the transaction clears everything
+            Map<String, ?> previousValues = null;
+            if (writeBehindBuffer == null)
+                previousValues = transactionEditor.isClear() ? sharedPreferences.getAll()
+                        : readPreviousValues(transactionEditor);
+            SharedPreferences.Editor editor = edit();
+            transactionEditor.applyTo(editor);
+            boolean isSaved = editor.commit();
+            if (!isSaved && previousValues != null)
+                rollBack(transactionEditor, previousValues);
+
+            if (transactionEditor.isClear())
+                invalidateCachedValues();
+            invalidateCachedValues(transactionEditor.getChangedKeys());
+            return isSaved;
+        } finally {
+            recordTiming(Operation.TRANSACTION, null, startTime);
         }
     }
 
-    private boolean putAllLong(Map<String, Long> keyValuePairs) {
-        Iterator<? extends Map.Entry<String, Long>> iterator = keyValuePairs.entrySet().iterator();
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Long> entry = iterator.next();
-            editor.putLong(entry.getKey(), entry.getValue());
+    /**
+     * Reads the values currently stored against the keys changed by the transaction, trying the type recorded
+     * by the transaction first. The keys without any value are left out.
+     */
+    private Map<String, Object> readPreviousValues(TransactionEditor transactionEditor) {
+        Map<String, Object> previousValues = new HashMap<>();
+        for (String key : transactionEditor.getChangedKeys()) {
+            if (!sharedPreferences.contains(key))
+                continue;
+            Class<?> recordedType = transactionEditor.getRecordedType(key);
+            if (recordedType != null) {
+                try {
+                    previousValues.put(key, readStoredValue(key, recordedType));
+                    continue;
+                } catch (ClassCastException ignored) {
+                    // stored as another type
+                }
+            }
+            for (Class<?> storedType : STORED_TYPES) {
+                if (storedType == recordedType)
+                    continue;
+                try {
+                    previousValues.put(key, readStoredValue(key, storedType));
+                    break;
+                } catch (ClassCastException ignored) {
+                    // stored as another type
+                }
+            }
         }
-        return editor.commit();
+        return previousValues;
     }
 
-    private boolean putAllString(Map<String, String> keyValuePairs) {
-        Iterator<? extends Map.Entry<String, String>> iterator = keyValuePairs.entrySet().iterator();
+    private void rollBack(TransactionEditor transactionEditor, Map<String, ?> previousValues) {
         SharedPreferences.Editor editor = sharedPreferences.edit();
-        while (iterator.hasNext()) {
-            Map.Entry<String, String> entry = iterator.next();
-            editor.putString(entry.getKey(), entry.getValue());
+        if (transactionEditor.isClear()) {
+            editor.clear();
+            for (Map.Entry<String, ?> entry : previousValues.entrySet())
+                putValue(editor, entry.getKey(), entry.getValue());
+        } else {
+            for (String key : transactionEditor.getChangedKeys()) {
+                if (previousValues.containsKey(key))
+                    putValue(editor, key, previousValues.get(key));
+                else
+                    editor.remove(key);
+            }
         }
-        return editor.commit();
+        editor.commit();
     }
 
-    private boolean putAllFloat(Map<String, Float> keyValuePairs) {
-        Iterator<? extends Map.Entry<String, Float>> iterator = keyValuePairs.entrySet().iterator();
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Float> entry = iterator.next();
-            editor.putFloat(entry.getKey(), entry.getValue());
-        }
-        return editor.commit();
+    /**
+     * Asynchronous variant of {@link #saveObject(String, Object)}.
+     * The write is performed in background and writes are applied in the order they were issued.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the object to be saved
+     * @return a PreferenceFuture that completes with the result of the write
+     */
+    public PreferenceFuture saveObjectAsync(final String key, final Object value) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return saveObject(key, value);
+            }
+        });
     }
 
-    private boolean putAllInteger(Map<String, Integer> keyValuePairs) {
-        Iterator<? extends Map.Entry<String, Integer>> iterator = keyValuePairs.entrySet().iterator();
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Integer> entry = iterator.next();
-            editor.putInt(entry.getKey(), entry.getValue());
-        }
-        return editor.commit();
+    /**
+     * Asynchronous variant of {@link #saveString(String, String)}.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return a PreferenceFuture that completes with the result of the write
+     */
+    public PreferenceFuture saveStringAsync(final String key, final String value) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return saveString(key, value);
+            }
+        });
     }
 
-    private boolean putAllBoolean(Map<String, Boolean> keyValuePairs) {
-        Iterator<? extends Map.Entry<String, Boolean>> iterator = keyValuePairs.entrySet().iterator();
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Boolean> entry = iterator.next();
-            editor.putBoolean(entry.getKey(), entry.getValue());
+    /**
+     * Asynchronous variant of {@link #saveInteger(String, Integer)}.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return a PreferenceFuture that completes with the result of the write
+     */
+    public PreferenceFuture saveIntegerAsync(final String key, final Integer value) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return saveInteger(key, value);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #saveLong(String, Long)}.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return a PreferenceFuture that completes with the result of the write
+     */
+    public PreferenceFuture saveLongAsync(final String key, final Long value) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return saveLong(key, value);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #saveBoolean(String, Boolean)}.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return a PreferenceFuture that completes with the result of the write
+     */
+    public PreferenceFuture saveBooleanAsync(final String key, final Boolean value) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return saveBoolean(key, value);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #saveFloat(String, Float)}.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return a PreferenceFuture that completes with the result of the write
+     */
+    public PreferenceFuture saveFloatAsync(final String key, final Float value) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return saveFloat(key, value);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #saveStringSet(String, Set)}.
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the data to be stored
+     * @return a PreferenceFuture that completes with the result of the write
+     */
+    public PreferenceFuture saveStringSetAsync(final String key, final Set<String> value) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return saveStringSet(key, value);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #removeData(String)}.
+     *
+     * @param key the key against which data needs to be removed
+     * @return a PreferenceFuture that completes with the result of the removal
+     */
+    public PreferenceFuture removeDataAsync(final String key) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return removeData(key);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #removeAll()}.
+     * Unlike removeAll, the result of the removal is reported through the returned PreferenceFuture.
+     *
+     * @return a PreferenceFuture that completes with the result of the removal
+     */
+    public PreferenceFuture removeAllAsync() {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean isRemoved = edit().clear().commit();
+                invalidateCachedValues();
+                return isRemoved;
+            }
+        });
+    }
+
+    /**
+     * Method to store all the entries of the map into shared preference using a single commit.
+     * The map may contain values of different types, every value is stored according to its own type.
+     * Objects are serialized using the configured ObjectCodec, in parallel when the map contains many of them.
+     *
+     * @param keyValuePairs the entries to be stored, a null value removes the key
+     * @return true, if data is stored successfully, otherwise returns false
+     * @throws UnsupportedOperationException if a value cannot be stored, in which case nothing is stored
+     */
+    public boolean putAll(Map<String, ?> keyValuePairs) throws UnsupportedOperationException {
+        long startTime = startTiming();
+        try {
+            List<String> objectKeys = new ArrayList<>();
+            List<Object> objects = new ArrayList<>();
+            for (Map.Entry<String, ?> entry : keyValuePairs.entrySet()) {
+                if (isObjectValue(entry.getValue())) {
+                    objectKeys.add(entry.getKey());
+                    objects.add(entry.getValue());
+                }
+            }
+            String[] encodedObjects = encodeObjects(objectKeys, objects);
+
+            SharedPreferences.Editor editor = edit();
+            int objectIndex = 0;
+            for (Map.Entry<String, ?> entry : keyValuePairs.entrySet()) {
+                if (isObjectValue(entry.getValue()))
+                    editor.putString(entry.getKey(), encodedObjects[objectIndex++]);
+                else
+                    putValue(editor, entry.getKey(), entry.getValue());
+            }
+            boolean isSaved = editor.commit();
+            invalidateCachedValues(keyValuePairs.keySet());
+            return isSaved;
+        } finally {
+            recordTiming(Operation.PUT_ALL, null, startTime);
         }
-        return editor.commit();
     }
 
-    private boolean putAllStringSet(Map<String, Set<String>> keyValuePairs) {
-        Iterator<? extends Map.Entry<String, Set<String>>> iterator = keyValuePairs.entrySet().iterator();
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Set<String>> entry = iterator.next();
-            editor.putStringSet(entry.getKey(), entry.getValue());
+    /**
+     * Asynchronous variant of {@link #putAll(Map)}.
+     *
+     * @param keyValuePairs the entries to be stored
+     * @return a PreferenceFuture that completes with the result of the write
+     */
+    public PreferenceFuture putAllAsync(Map<String, ?> keyValuePairs) {
+        // copying so that later changes to the caller's map do not leak into the pending write
+        final Map<String, ?> entries = new LinkedHashMap<>(keyValuePairs);
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return putAll(entries);
+            }
+        });
+    }
+
+    private static boolean isObjectValue(Object value) {
+        return value != null && !(value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Float || value instanceof Boolean || value instanceof Set);
+    }
+
+    /**
+     * Puts a value that is not an object into the editor, using the put method matching its type.
+     * Used by every path writing untyped values, so that they all accept the same types.
+     *
+     * @param editor the editor to which the value should be written
+     * @param key    the key against which data needs to be stored
+     * @param value  the data to be stored, null removes the key
+     * @throws UnsupportedOperationException if the value cannot be stored in SharedPreferences
+     */
+    static void putValue(SharedPreferences.Editor editor, String key, Object value) {
+        if (value == null) {
+            editor.remove(key);
+        } else if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, toStringSet((Set<?>) value));
+        } else {
+            throw new UnsupportedOperationException("Unsupported value type for SharedPreferences: "
+                    + value.getClass().getName());
         }
-        return editor.commit();
     }
 
-    private boolean putAllSerializable(Map<String, ? extends Serializable> keyValuePairs) {
-        Iterator<? extends Map.Entry<String, ? extends Serializable>> iterator = keyValuePairs.entrySet().iterator();
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        while (iterator.hasNext()) {
-            Map.Entry<String, ? extends Serializable> entry = iterator.next();
-            editor.putString(entry.getKey(), gson.toJson(entry.getValue()));
+    @SuppressWarnings({"unchecked"})
+    private static Set<String> toStringSet(Set<?> value) {
+        for (Object element : value)
+            if (!(element instanceof String))
+                throw new UnsupportedOperationException("Only Set<String> can be stored in SharedPreferences");
+        return (Set<String>) value;
+    }
+
+    /**
+     * Serializes the objects, splitting the work across a ForkJoinPool when there are many of them.
+     * All the objects are validated before anything is serialized, so that nothing is stored if one of them is invalid.
+     */
+    private String[] encodeObjects(List<String> keys, List<Object> objects) {
+        String[] encoded = new String[objects.size()];
+        if (objects.isEmpty())
+            return encoded;
+        checkObjectSupport();
+        for (Object object : objects)
+            if (!(object instanceof Serializable))
+                throw new UnsupportedOperationException("Only Serializable objects can be stored in SharedPreferences");
+
+        if (objects.size() < ObjectEncodingTask.PARALLEL_THRESHOLD)
+            for (int i = 0; i < objects.size(); i++)
+                encoded[i] = encodeObject(keys.get(i), objects.get(i));
+        else
+            ObjectEncodingTask.encode(this, keys, objects, encoded);
+        return encoded;
+    }
+
+    /**
+     * Fork join task serializing a range of the objects of a putAll
+     */
+    private static class ObjectEncodingTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Number of objects from which the serialization of a putAll is split across threads
+         */
+        static final int PARALLEL_THRESHOLD = 64;
+        private static final int BATCH_SIZE = 16;
+        private static ForkJoinPool pool;
+
+        private final SimplePreferenceManager manager;
+        private final List<String> keys;
+        private final List<Object> objects;
+        private final String[] encoded;
+        private final int from;
+        private final int to;
+
+        private ObjectEncodingTask(SimplePreferenceManager manager, List<String> keys, List<Object> objects,
+                                   String[] encoded, int from, int to) {
+            this.manager = manager;
+            this.keys = keys;
+            this.objects = objects;
+            this.encoded = encoded;
+            this.from = from;
+            this.to = to;
+        }
+
+        static void encode(SimplePreferenceManager manager, List<String> keys, List<Object> objects, String[] encoded) {
+            getEncodingPool().invoke(new ObjectEncodingTask(manager, keys, objects, encoded, 0, objects.size()));
+        }
+
+        private static synchronized ForkJoinPool getEncodingPool() {
+            // ForkJoinPool.commonPool() is only available from API 24
+            if (pool == null)
+                pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+            return pool;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                for (int i = from; i < to; i++)
+                    encoded[i] = manager.encodeObject(keys.get(i), objects.get(i));
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ObjectEncodingTask(manager, keys, objects, encoded, from, middle),
+                        new ObjectEncodingTask(manager, keys, objects, encoded, middle, to));
+            }
         }
-        return editor.commit();
     }
 
 }
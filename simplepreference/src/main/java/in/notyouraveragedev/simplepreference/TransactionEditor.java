@@ -0,0 +1,123 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Typed editor recording the changes of a {@link PreferenceTransaction}.
+ * <p>
+ * Nothing is visible to readers until the transaction completes, at which point all the changes
+ * are applied using a single commit.
+ */
+public final class TransactionEditor {
+
+    /**
+     * Marker recorded against a removed key
+     */
+    private static final Object REMOVED = new Object();
+
+    private final SimplePreferenceManager preferenceManager;
+    private final Map<String, Object> changes = new LinkedHashMap<>();
+    private boolean clear = false;
+
+    TransactionEditor(SimplePreferenceManager preferenceManager) {
+        this.preferenceManager = preferenceManager;
+    }
+
+    public TransactionEditor putString(String key, String value) {
+        changes.put(key, value == null ? REMOVED : value);
+        return this;
+    }
+
+    public TransactionEditor putInteger(String key, int value) {
+        changes.put(key, value);
+        return this;
+    }
+
+    public TransactionEditor putLong(String key, long value) {
+        changes.put(key, value);
+        return this;
+    }
+
+    public TransactionEditor putFloat(String key, float value) {
+        changes.put(key, value);
+        return this;
+    }
+
+    public TransactionEditor putBoolean(String key, boolean value) {
+        changes.put(key, value);
+        return this;
+    }
+
+    public TransactionEditor putStringSet(String key, Set<String> value) {
+        changes.put(key, value == null ? REMOVED : new HashSet<>(value));
+        return this;
+    }
+
+    /**
+     * Records an object to be saved, the object is serialized immediately using the configured ObjectCodec
+     *
+     * @param key   the key against which data needs to be stored
+     * @param value the object to be saved
+     * @return the TransactionEditor
+     * @throws UnsupportedOperationException if object storage is not enabled or the object is not Serializable
+     */
+    public TransactionEditor putObject(String key, Object value) throws UnsupportedOperationException {
+        preferenceManager.checkObjectSupport();
+        if (!(value instanceof Serializable))
+            throw new UnsupportedOperationException("Only Serializable objects can be saved in SharedPreferences");
+        changes.put(key, preferenceManager.encodeObject(key, value));
+        return this;
+    }
+
+    public TransactionEditor remove(String key) {
+        changes.put(key, REMOVED);
+        return this;
+    }
+
+    /**
+     * Removes all the existing data before applying the other changes of the transaction
+     *
+     * @return the TransactionEditor
+     */
+    public TransactionEditor clear() {
+        clear = true;
+        changes.clear();
+        return this;
+    }
+
+    boolean isClear() {
+        return clear;
+    }
+
+    Set<String> getChangedKeys() {
+        return changes.keySet();
+    }
+
+    /**
+     * Applies the recorded changes into the editor
+     */
+    void applyTo(SharedPreferences.Editor editor) {
+        if (clear)
+            editor.clear();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            Object value = change.getValue();
+            SimplePreferenceManager.putValue(editor, change.getKey(), value == REMOVED ? null : value);
+        }
+    }
+
+    /**
+     * @return the type of the value recorded against the key, as listed in the stored types, or null if removed
+     */
+    Class<?> getRecordedType(String key) {
+        Object value = changes.get(key);
+        if (value == null || value == REMOVED)
+            return null;
+        return value instanceof Set ? Set.class : value.getClass();
+    }
+}
@@ -0,0 +1,301 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write Behind Buffer holds the pending writes of a SimplePreferenceManager in memory
+ * and flushes them into the SharedPreferences as a single Editor commit.
+ * <p>
+ * A flush happens once the number of pending writes reaches the configured threshold,
+ * once the configured time window has elapsed since the first pending write, or when
+ * {@link #flush()} is called explicitly. The pending writes are only dropped from the buffer once committed,
+ * a failed flush keeps them and is retried after the configured time window, or on the next flush if there is none.
+ * <p>
+ * The buffer is only locked to merge, read or snapshot the pending writes, the commit itself runs without the lock
+ * so that reads and saves do not wait for the disk write. The threshold flush runs on the background thread
+ * instead of the thread saving.
+ */
+class WriteBehindBuffer {
+
+    /**
+     * Marker stored against a key that has been removed but not yet flushed
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * Returned by {@link #get(String)} when the key has no pending write
+     */
+    static final Object NOT_BUFFERED = new Object();
+
+    private final SharedPreferences sharedPreferences;
+    private final int maxPendingWrites;
+    private final long flushDelayMillis;
+    private final Map<String, Object> pendingWrites;
+    private boolean clearPending;
+    /**
+     * Number of clears merged so far, telling whether a clear was merged while a flush was committing
+     */
+    private long clearCount;
+    private boolean isClosed;
+    /**
+     * Held for the whole flush, so that an older snapshot is never committed after a newer one
+     */
+    private final Object flushLock = new Object();
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledFlush;
+
+    WriteBehindBuffer(SharedPreferences sharedPreferences, int maxPendingWrites, long flushDelayMillis) {
+        this.sharedPreferences = sharedPreferences;
+        this.maxPendingWrites = maxPendingWrites;
+        this.flushDelayMillis = flushDelayMillis;
+        this.pendingWrites = new LinkedHashMap<>();
+        this.clearPending = false;
+    }
+
+    /**
+     * Returns an Editor whose changes are merged into this buffer on commit / apply
+     * instead of being written into the SharedPreferences immediately.
+     *
+     * @return a buffering editor
+     */
+    SharedPreferences.Editor edit() {
+        return new BufferedEditor();
+    }
+
+    /**
+     * Returns the pending value of the specified key.
+     *
+     * @param key the key against which data needs to be fetched
+     * @return {@link #NOT_BUFFERED} if the buffer has no say over the key, null if the key
+     * is pending removal, otherwise the pending value
+     */
+    synchronized Object get(String key) {
+        if (pendingWrites.containsKey(key)) {
+            Object value = pendingWrites.get(key);
+            return value == REMOVED ? null : value;
+        }
+        return clearPending ? null : NOT_BUFFERED;
+    }
+
+    /**
+     * Merges the changes into the pending writes
+     *
+     * @return true if the buffer is closed, in which case the caller flushes the changes right away
+     */
+    private synchronized boolean merge(Map<String, Object> changes, boolean clear) {
+        if (clear) {
+            // writes buffered before the clear would be wiped out anyway
+            pendingWrites.clear();
+            clearPending = true;
+            clearCount++;
+        }
+        pendingWrites.putAll(changes);
+        if (isClosed)
+            return true;
+        if (pendingWrites.size() >= maxPendingWrites)
+            scheduleFlush(0);
+        else if (flushDelayMillis > 0)
+            scheduleFlush(flushDelayMillis);
+        return false;
+    }
+
+    /**
+     * Writes all the pending changes into the SharedPreferences using a single commit.
+     * The changes stay pending and readable until the commit succeeds, a failed commit is retried after the flush delay.
+     *
+     * @return true if the changes were committed successfully or nothing was pending, otherwise false
+     */
+    boolean flush() {
+        synchronized (flushLock) {
+            Map<String, Object> flushedWrites;
+            boolean flushedClear;
+            long flushedClearCount;
+            synchronized (this) {
+                cancelScheduledFlush();
+                if (!clearPending && pendingWrites.isEmpty())
+                    return true;
+                flushedWrites = new LinkedHashMap<>(pendingWrites);
+                flushedClear = clearPending;
+                flushedClearCount = clearCount;
+            }
+
+            // committed without the lock, the listeners notified by the commit may buffer new writes
+            SharedPreferences.Editor editor = sharedPreferences.edit();
+            if (flushedClear)
+                editor.clear();
+            for (Map.Entry<String, Object> entry : flushedWrites.entrySet()) {
+                Object value = entry.getValue();
+                SimplePreferenceManager.putValue(editor, entry.getKey(), value == REMOVED ? null : value);
+            }
+            boolean isCommitted = editor.commit();
+
+            synchronized (this) {
+                if (!isCommitted) {
+                    if (flushDelayMillis > 0)
+                        scheduleFlush(flushDelayMillis);
+                    return false;
+                }
+                // a clear merged meanwhile has dropped the flushed writes already and stays pending
+                if (clearCount == flushedClearCount) {
+                    clearPending = false;
+                    Iterator<Map.Entry<String, Object>> iterator = pendingWrites.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<String, Object> entry = iterator.next();
+                        if (entry.getValue() == flushedWrites.get(entry.getKey()))
+                            iterator.remove();
+                    }
+                }
+                if ((clearPending || !pendingWrites.isEmpty()) && flushDelayMillis > 0)
+                    scheduleFlush(flushDelayMillis);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Flushes the pending writes and stops the background flush thread,
+     * the writes merged afterwards are flushed right away
+     *
+     * @return the result of the final flush
+     */
+    boolean close() {
+        synchronized (this) {
+            isClosed = true;
+        }
+        boolean result = flush();
+        synchronized (this) {
+            cancelScheduledFlush();
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Schedules a flush on the background thread, unless one is already scheduled to run sooner
+     */
+    private void scheduleFlush(long delayMillis) {
+        if (isClosed)
+            return;
+        if (scheduledFlush != null) {
+            if (scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= delayMillis)
+                return;
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                // a failed flush schedules its own retry
+                flush();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SimplePreference-WriteBehind");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Editor that records the changes locally and merges them into the buffer on commit
+     */
+    private class BufferedEditor implements SharedPreferences.Editor {
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private boolean clear = false;
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            changes.put(key, value == null ? REMOVED : value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            changes.put(key, values == null ? REMOVED : new HashSet<>(values));
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            changes.put(key, REMOVED);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        /**
+         * Merges the changes into the buffer. The actual disk write happens on the next flush,
+         * so the returned value only indicates that the changes were accepted.
+         */
+        @Override
+        public boolean commit() {
+            if (merge(changes, clear))
+                return flush();
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            if (merge(changes, clear))
+                flush();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package in.notyouraveragedev.simplepreference.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Describes the key of a getter of a {@link Preferences} interface.
+ * <p>
+ * The return type of the getter decides the stored type: int, long, float, boolean, String and Set&lt;String&gt;
+ * are stored as such, any other Serializable class is stored as an object, which needs the
+ * SimplePreferenceManager to be built with object storage support. Integer, Long, Float and Boolean are stored
+ * as their primitive type, and read as null when nothing is stored unless a default value is specified.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface Key {
+
+    /**
+     * @return the key against which the value is stored
+     */
+    String value();
+
+    /**
+     * The value returned when nothing is stored against the key, written as a Java literal without quotes
+     * or suffixes, for example "42", "1.5", "true" or "some text". Checked at compile time.
+     * Not supported for Set&lt;String&gt; and object keys.
+     *
+     * @return the default value, 0, false or null if not specified
+     */
+    String defaultValue() default "";
+}
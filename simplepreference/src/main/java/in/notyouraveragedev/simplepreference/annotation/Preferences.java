@@ -0,0 +1,28 @@
+package in.notyouraveragedev.simplepreference.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface describing preference keys, for which the simplepreference-compiler annotation processor
+ * generates a typed facade over a SimplePreferenceManager. Every method of the interface must be a getter
+ * annotated with {@link Key}:
+ * <pre>
+ * &#64;Preferences
+ * public interface AppSettings {
+ *     &#64;Key(value = "dark_mode", defaultValue = "true")
+ *     boolean isDarkMode();
+ *
+ *     &#64;Key("user_name")
+ *     String getUserName();
+ * }
+ * </pre>
+ * The generated class is named after the interface with the suffix "Preferences", for example
+ * AppSettingsPreferences, implements the interface and adds a setter and a remover for every key.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Preferences {
+}
@@ -0,0 +1,21 @@
+package in.notyouraveragedev.simplepreference.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class stored using saveObject, for which the simplepreference-compiler annotation processor generates
+ * a streaming Gson TypeAdapter, so that the object is encoded and decoded without reflection.
+ * <p>
+ * The generated adapter is named after the class with the suffix "_GsonAdapter" and is picked up automatically
+ * by {@link in.notyouraveragedev.simplepreference.codec.GsonCodec}. Like Gson, it stores all the non-static,
+ * non-transient fields of the class and its superclasses, honouring &#64;SerializedName. The fields must either
+ * be accessible from the package of the class or have a public getter and setter, and the class must have an
+ * accessible constructor without parameters.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface StoredObject {
+}
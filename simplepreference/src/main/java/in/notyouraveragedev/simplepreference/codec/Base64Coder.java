@@ -0,0 +1,81 @@
+package in.notyouraveragedev.simplepreference.codec;
+
+/**
+ * Base64 encoder / decoder used to keep binary data in the String slots of a Shared Preference File.
+ * <p>
+ * java.util.Base64 is only available from API 26 and android.util.Base64 is not available
+ * outside Android, hence this minimal implementation.
+ */
+public final class Base64Coder {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] INDEX = new int[128];
+
+    static {
+        java.util.Arrays.fill(INDEX, -1);
+        for (int i = 0; i < ALPHABET.length; i++)
+            INDEX[ALPHABET[i]] = i;
+    }
+
+    private Base64Coder() {
+    }
+
+    /**
+     * Encodes the bytes into a padded Base64 String
+     *
+     * @param data the bytes to be encoded
+     * @return the Base64 String
+     */
+    public static String encode(byte[] data) {
+        char[] out = new char[(data.length + 2) / 3 * 4];
+        int o = 0;
+        for (int i = 0; i < data.length; i += 3) {
+            int b0 = data[i] & 0xff;
+            int b1 = i + 1 < data.length ? data[i + 1] & 0xff : 0;
+            int b2 = i + 2 < data.length ? data[i + 2] & 0xff : 0;
+            out[o++] = ALPHABET[b0 >>> 2];
+            out[o++] = ALPHABET[((b0 & 0x03) << 4) | (b1 >>> 4)];
+            out[o++] = i + 1 < data.length ? ALPHABET[((b1 & 0x0f) << 2) | (b2 >>> 6)] : '=';
+            out[o++] = i + 2 < data.length ? ALPHABET[b2 & 0x3f] : '=';
+        }
+        return new String(out);
+    }
+
+    /**
+     * Decodes a padded Base64 String
+     *
+     * @param data the Base64 String
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the String is not valid Base64
+     */
+    public static byte[] decode(String data) {
+        int length = data.length();
+        if (length % 4 != 0)
+            throw new IllegalArgumentException("Invalid Base64 length: " + length);
+        int padding = 0;
+        if (length > 0 && data.charAt(length - 1) == '=') padding++;
+        if (length > 1 && data.charAt(length - 2) == '=') padding++;
+
+        byte[] out = new byte[length / 4 * 3 - padding];
+        int o = 0;
+        for (int i = 0; i < length; i += 4) {
+            int c0 = indexOf(data.charAt(i));
+            int c1 = indexOf(data.charAt(i + 1));
+            int c2 = data.charAt(i + 2) == '=' ? 0 : indexOf(data.charAt(i + 2));
+            int c3 = data.charAt(i + 3) == '=' ? 0 : indexOf(data.charAt(i + 3));
+            int bits = (c0 << 18) | (c1 << 12) | (c2 << 6) | c3;
+            out[o++] = (byte) (bits >>> 16);
+            if (o < out.length) out[o++] = (byte) (bits >>> 8);
+            if (o < out.length) out[o++] = (byte) bits;
+        }
+        return out;
+    }
+
+    private static int indexOf(char c) {
+        int index = c < 128 ? INDEX[c] : -1;
+        if (index < 0)
+            throw new IllegalArgumentException("Invalid Base64 character: " + c);
+        return index;
+    }
+}
@@ -0,0 +1,460 @@
+package in.notyouraveragedev.simplepreference.codec;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Object Codec storing objects in a compact binary form, Base64 encoded to fit the String slot
+ * of a Shared Preference File.
+ * <p>
+ * Every value is written as a length prefixed field, numbers are written as variable length integers
+ * and object fields are identified by a 16 bit hash of their name instead of the name itself. Fields that
+ * are unknown while decoding are skipped and fields missing in the stored data keep their default
+ * values, so classes can gain or lose fields between versions.
+ * <p>
+ * Supported are primitives and their wrappers, String, enums, arrays, Collections, Maps and objects
+ * built from these having a no-argument constructor. Collection and Map fields need concrete
+ * generic type arguments, since the element types are not stored.
+ */
+public class BinaryCodec implements ObjectCodec {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<Class<?>, ClassInfo> classInfoCache = new ConcurrentHashMap<>();
+
+    @Override
+    public String encode(Object value) {
+        Output out = new Output();
+        out.writeByte(FORMAT_VERSION);
+        writeFramed(out, value == null ? Object.class : value.getClass(), value);
+        return Base64Coder.encode(out.toByteArray());
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked"})
+    public <T> T decode(String data, Class<T> targetClass) {
+        Input in = new Input(Base64Coder.decode(data));
+        int version = in.readByte();
+        if (version != FORMAT_VERSION)
+            throw new IllegalArgumentException("Unsupported binary format version: " + version);
+        return (T) readFramed(in, targetClass);
+    }
+
+    private void writeFramed(Output out, Type type, Object value) {
+        if (value == null) {
+            out.writeVarint(0);
+            return;
+        }
+        int start = out.size();
+        writeValue(out, type, value);
+        // the length is shifted by one so that 0 can denote null
+        out.insertVarint(start, out.size() - start + 1);
+    }
+
+    private void writeValue(Output out, Type type, Object value) {
+        Class<?> rawType = wrap(rawType(type));
+        if (rawType == Object.class)
+            rawType = value.getClass();
+
+        if (rawType == Boolean.class) {
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (rawType == Byte.class) {
+            out.writeByte((Byte) value);
+        } else if (rawType == Short.class || rawType == Integer.class) {
+            out.writeVarint(zigZag(((Number) value).longValue()));
+        } else if (rawType == Long.class) {
+            out.writeVarint(zigZag((Long) value));
+        } else if (rawType == Character.class) {
+            out.writeVarint((Character) value);
+        } else if (rawType == Float.class) {
+            out.writeFixed(Float.floatToIntBits((Float) value), 4);
+        } else if (rawType == Double.class) {
+            out.writeFixed(Double.doubleToLongBits((Double) value), 8);
+        } else if (rawType == String.class) {
+            out.writeBytes(((String) value).getBytes(UTF_8));
+        } else if (value instanceof Enum) {
+            out.writeBytes(((Enum<?>) value).name().getBytes(UTF_8));
+        } else if (rawType == byte[].class) {
+            out.writeBytes((byte[]) value);
+        } else if (rawType.isArray()) {
+            Type componentType = componentType(type, rawType);
+            int length = Array.getLength(value);
+            out.writeVarint(length);
+            for (int i = 0; i < length; i++)
+                writeFramed(out, componentType, Array.get(value, i));
+        } else if (value instanceof Collection) {
+            Type elementType = concreteTypeArgument(type, 0);
+            Collection<?> collection = (Collection<?>) value;
+            out.writeVarint(collection.size());
+            for (Object element : collection)
+                writeFramed(out, elementType, element);
+        } else if (value instanceof Map) {
+            Type keyType = concreteTypeArgument(type, 0);
+            Type valueType = concreteTypeArgument(type, 1);
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeVarint(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeFramed(out, keyType, entry.getKey());
+                writeFramed(out, valueType, entry.getValue());
+            }
+        } else {
+            writeObject(out, value);
+        }
+    }
+
+    private void writeObject(Output out, Object value) {
+        ClassInfo classInfo = getClassInfo(value.getClass());
+        try {
+            int presentFields = 0;
+            for (Field field : classInfo.fields)
+                if (field.get(value) != null)
+                    presentFields++;
+            out.writeVarint(presentFields);
+            for (Field field : classInfo.fields) {
+                Object fieldValue = field.get(value);
+                if (fieldValue != null) {
+                    out.writeFixed(fieldId(field), 2);
+                    writeFramed(out, field.getGenericType(), fieldValue);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Could not read fields of " + value.getClass().getName(), e);
+        }
+    }
+
+    private Object readFramed(Input in, Type type) {
+        int length = (int) in.readVarint();
+        if (length == 0)
+            return null;
+        int end = in.position + length - 1;
+        Object value = readValue(in, type, end);
+        in.position = end;
+        return value;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readValue(Input in, Type type, int end) {
+        Class<?> rawType = wrap(rawType(type));
+
+        if (rawType == Boolean.class) {
+            return in.readByte() != 0;
+        } else if (rawType == Byte.class) {
+            return (byte) in.readByte();
+        } else if (rawType == Short.class) {
+            return (short) unZigZag(in.readVarint());
+        } else if (rawType == Integer.class) {
+            return (int) unZigZag(in.readVarint());
+        } else if (rawType == Long.class) {
+            return unZigZag(in.readVarint());
+        } else if (rawType == Character.class) {
+            return (char) in.readVarint();
+        } else if (rawType == Float.class) {
+            return Float.intBitsToFloat((int) in.readFixed(4));
+        } else if (rawType == Double.class) {
+            return Double.longBitsToDouble(in.readFixed(8));
+        } else if (rawType == String.class) {
+            return new String(in.buffer, in.position, end - in.position, UTF_8);
+        } else if (rawType.isEnum()) {
+            return Enum.valueOf((Class<Enum>) rawType, new String(in.buffer, in.position, end - in.position, UTF_8));
+        } else if (rawType == byte[].class) {
+            return Arrays.copyOfRange(in.buffer, in.position, end);
+        } else if (rawType.isArray()) {
+            Type componentType = componentType(type, rawType);
+            int length = (int) in.readVarint();
+            Object array = Array.newInstance(rawType.getComponentType(), length);
+            for (int i = 0; i < length; i++)
+                Array.set(array, i, readFramed(in, componentType));
+            return array;
+        } else if (Collection.class.isAssignableFrom(rawType)) {
+            Type elementType = concreteTypeArgument(type, 0);
+            int size = (int) in.readVarint();
+            Collection<Object> collection = (Collection<Object>) newCollection(rawType);
+            for (int i = 0; i < size; i++)
+                collection.add(readFramed(in, elementType));
+            return collection;
+        } else if (Map.class.isAssignableFrom(rawType)) {
+            Type keyType = concreteTypeArgument(type, 0);
+            Type valueType = concreteTypeArgument(type, 1);
+            int size = (int) in.readVarint();
+            Map<Object, Object> map = (Map<Object, Object>) newMap(rawType);
+            for (int i = 0; i < size; i++)
+                map.put(readFramed(in, keyType), readFramed(in, valueType));
+            return map;
+        } else {
+            return readObject(in, rawType);
+        }
+    }
+
+    private Object readObject(Input in, Class<?> type) {
+        ClassInfo classInfo = getClassInfo(type);
+        try {
+            Object value = classInfo.newInstance();
+            int presentFields = (int) in.readVarint();
+            for (int i = 0; i < presentFields; i++) {
+                Field field = classInfo.fieldsById.get((int) in.readFixed(2));
+                if (field == null) {
+                    in.skipFramed();
+                } else {
+                    Object fieldValue = readFramed(in, field.getGenericType());
+                    if (fieldValue != null || !field.getType().isPrimitive())
+                        field.set(value, fieldValue);
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Could not create an instance of " + type.getName(), e);
+        }
+    }
+
+    private ClassInfo getClassInfo(Class<?> type) {
+        ClassInfo classInfo = classInfoCache.get(type);
+        if (classInfo == null) {
+            classInfo = new ClassInfo(type);
+            classInfoCache.put(type, classInfo);
+        }
+        return classInfo;
+    }
+
+    private static Collection<?> newCollection(Class<?> type) {
+        if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers()))
+            return (Collection<?>) newInstance(type);
+        if (SortedSet.class.isAssignableFrom(type))
+            return new TreeSet<>();
+        if (Set.class.isAssignableFrom(type))
+            return new LinkedHashSet<>();
+        return new ArrayList<>();
+    }
+
+    private static Map<?, ?> newMap(Class<?> type) {
+        if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers()))
+            return (Map<?, ?>) newInstance(type);
+        if (SortedMap.class.isAssignableFrom(type))
+            return new TreeMap<>();
+        return new LinkedHashMap<>();
+    }
+
+    private static Object newInstance(Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException(type.getName() + " needs a no-argument constructor to be decoded", e);
+        }
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class)
+            return (Class<?>) type;
+        if (type instanceof ParameterizedType)
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        if (type instanceof GenericArrayType)
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        if (type instanceof WildcardType)
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        return Object.class;
+    }
+
+    private static Type componentType(Type type, Class<?> rawType) {
+        if (type instanceof GenericArrayType)
+            return ((GenericArrayType) type).getGenericComponentType();
+        return rawType.getComponentType();
+    }
+
+    private static Type concreteTypeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) type).getActualTypeArguments()[index];
+            if (rawType(argument) != Object.class)
+                return argument;
+        }
+        throw new UnsupportedOperationException("BinaryCodec needs concrete type arguments for Collections and Maps, found " + type);
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (type == int.class) return Integer.class;
+        if (type == long.class) return Long.class;
+        if (type == boolean.class) return Boolean.class;
+        if (type == float.class) return Float.class;
+        if (type == double.class) return Double.class;
+        if (type == byte.class) return Byte.class;
+        if (type == short.class) return Short.class;
+        return Character.class;
+    }
+
+    /**
+     * Identifies a field by the 16 bit fold of the hash of its name
+     */
+    private static int fieldId(Field field) {
+        int hash = field.getName().hashCode();
+        return (hash ^ (hash >>> 16)) & 0xffff;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Serializable fields of a class, sorted by name and indexed by their field id
+     */
+    private static final class ClassInfo {
+        private final Class<?> type;
+        private final List<Field> fields = new ArrayList<>();
+        private final Map<Integer, Field> fieldsById = new HashMap<>();
+        private Constructor<?> constructor;
+
+        ClassInfo(Class<?> type) {
+            this.type = type;
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                        continue;
+                    field.setAccessible(true);
+                    if (fieldsById.put(fieldId(field), field) != null)
+                        throw new UnsupportedOperationException("Conflicting field names in " + type.getName() + ": " + field.getName());
+                    fields.add(field);
+                }
+            }
+            java.util.Collections.sort(fields, new Comparator<Field>() {
+                @Override
+                public int compare(Field first, Field second) {
+                    return first.getName().compareTo(second.getName());
+                }
+            });
+        }
+
+        Object newInstance() throws ReflectiveOperationException {
+            if (constructor == null) {
+                try {
+                    constructor = type.getDeclaredConstructor();
+                } catch (NoSuchMethodException e) {
+                    throw new UnsupportedOperationException(type.getName() + " needs a no-argument constructor to be decoded", e);
+                }
+                constructor.setAccessible(true);
+            }
+            return constructor.newInstance();
+        }
+    }
+
+    private static final class Output {
+        private byte[] buffer = new byte[64];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeFixed(long value, int bytes) {
+            for (int i = 0; i < bytes; i++)
+                writeByte((int) (value >>> (8 * i)));
+        }
+
+        /**
+         * Inserts a variable length integer at the specified position, shifting the data after it
+         */
+        void insertVarint(int position, long value) {
+            int length = 1;
+            for (long remaining = value >>> 7; remaining != 0; remaining >>>= 7)
+                length++;
+            ensureCapacity(length);
+            System.arraycopy(buffer, position, buffer, position + length, size - position);
+            for (int i = 0; i < length; i++) {
+                buffer[position + i] = (byte) (i == length - 1 ? value & 0x7f : (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            size += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buffer;
+        private int position;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        int readByte() {
+            return buffer[position++];
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+        }
+
+        long readFixed(int bytes) {
+            long value = 0;
+            for (int i = 0; i < bytes; i++)
+                value |= (long) (buffer[position++] & 0xff) << (8 * i);
+            return value;
+        }
+
+        void skipFramed() {
+            int length = (int) readVarint();
+            if (length > 0)
+                position += length - 1;
+        }
+    }
+}
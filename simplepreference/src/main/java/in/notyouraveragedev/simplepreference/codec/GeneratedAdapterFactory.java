@@ -0,0 +1,46 @@
+package in.notyouraveragedev.simplepreference.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * TypeAdapterFactory providing the adapters generated by the simplepreference-compiler annotation processor
+ * for classes annotated with {@link in.notyouraveragedev.simplepreference.annotation.StoredObject}.
+ * <p>
+ * The generated adapter of a class is found by its name, once per type, since Gson caches the adapters it
+ * creates. Encoding and decoding then happens without reflection.
+ */
+class GeneratedAdapterFactory implements TypeAdapterFactory {
+
+    static final String ADAPTER_SUFFIX = "_GsonAdapter";
+
+    @Override
+    @SuppressWarnings({"unchecked"})
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType.isPrimitive() || rawType.isArray() || rawType.isInterface() || isPlatformClass(rawType.getName()))
+            return null;
+
+        Class<?> adapterClass;
+        try {
+            // nested classes are generated with their enclosing class names joined by underscores
+            adapterClass = Class.forName(rawType.getName().replace('$', '_') + ADAPTER_SUFFIX, true, rawType.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return (TypeAdapter<T>) adapterClass.getConstructor(Gson.class).newInstance(gson);
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Could not create the generated adapter " + adapterClass.getName(), e);
+        }
+    }
+
+    private static boolean isPlatformClass(String className) {
+        return className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("android.")
+                || className.startsWith("com.google.gson.");
+    }
+}
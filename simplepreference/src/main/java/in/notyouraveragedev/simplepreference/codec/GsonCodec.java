@@ -0,0 +1,64 @@
+package in.notyouraveragedev.simplepreference.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.lang.reflect.Type;
+
+/**
+ * Object Codec storing objects as json using Gson. This is the default codec of SimplePreferenceManager.
+ * <p>
+ * Custom TypeAdapters can be registered using {@link #registerTypeAdapter(Type, Object)}
+ * or by creating the codec from a configured GsonBuilder. The adapters generated for classes annotated with
+ * {@link in.notyouraveragedev.simplepreference.annotation.StoredObject} are used automatically.
+ */
+public class GsonCodec implements ObjectCodec {
+
+    private final GsonBuilder gsonBuilder;
+    private volatile Gson gson;
+
+    public GsonCodec() {
+        this(new GsonBuilder());
+    }
+
+    /**
+     * Creates a GsonCodec using the configurations of the specified GsonBuilder
+     *
+     * @param gsonBuilder the configured GsonBuilder
+     */
+    public GsonCodec(GsonBuilder gsonBuilder) {
+        this.gsonBuilder = gsonBuilder.registerTypeAdapterFactory(new GeneratedAdapterFactory());
+        this.gson = gsonBuilder.create();
+    }
+
+    /**
+     * Registers a custom serializer / deserializer for the specified type.
+     * Accepts the same adapters as {@link GsonBuilder#registerTypeAdapter(Type, Object)}.
+     *
+     * @param type        the type the adapter is registered for
+     * @param typeAdapter the TypeAdapter, InstanceCreator, JsonSerializer or JsonDeserializer
+     * @return the GsonCodec
+     */
+    public synchronized GsonCodec registerTypeAdapter(Type type, Object typeAdapter) {
+        gsonBuilder.registerTypeAdapter(type, typeAdapter);
+        gson = gsonBuilder.create();
+        return this;
+    }
+
+    /**
+     * @return the Gson instance currently used by the codec
+     */
+    public Gson getGson() {
+        return gson;
+    }
+
+    @Override
+    public String encode(Object value) {
+        return gson.toJson(value);
+    }
+
+    @Override
+    public <T> T decode(String data, Class<T> targetClass) {
+        return gson.fromJson(data, targetClass);
+    }
+}
@@ -0,0 +1,25 @@
+package in.notyouraveragedev.simplepreference.codec;
+
+/**
+ * Object Codec converts the objects saved using SimplePreferenceManager to and from the String
+ * that is stored in the Shared Preference File.
+ */
+public interface ObjectCodec {
+
+    /**
+     * Converts the object into the String to be stored
+     *
+     * @param value the object to be converted
+     * @return the String representation of the object
+     */
+    String encode(Object value);
+
+    /**
+     * Converts the stored String back into an object of the target class
+     *
+     * @param data        the stored String
+     * @param targetClass the Class to which the object belongs to
+     * @return the decoded object
+     */
+    <T> T decode(String data, Class<T> targetClass);
+}
@@ -0,0 +1,74 @@
+package in.notyouraveragedev.simplepreference.metrics;
+
+/**
+ * Latency histogram of a single operation at the time a snapshot was taken.
+ * <p>
+ * Durations are counted in power of two buckets, so percentiles are accurate to a factor of two.
+ */
+public final class LatencyStats {
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] buckets;
+
+    LatencyStats(long count, long totalNanos, long maxNanos, long[] buckets) {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the specified percentile
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the estimated duration in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (count == 0)
+            return 0;
+        long threshold = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            seen += buckets[bucket];
+            if (seen >= Math.max(threshold, 1))
+                return Math.min(bucket == 63 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1, maxNanos);
+        }
+        return maxNanos;
+    }
+
+    /**
+     * @return the number of durations in every power of two bucket,
+     * bucket i holding the durations from 2^i to 2^(i+1) - 1 nanoseconds
+     */
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats{" +
+                "count=" + count +
+                ", meanNanos=" + getMeanNanos() +
+                ", p50Nanos=" + getPercentileNanos(50) +
+                ", p99Nanos=" + getPercentileNanos(99) +
+                ", maxNanos=" + maxNanos +
+                '}';
+    }
+}
@@ -0,0 +1,26 @@
+package in.notyouraveragedev.simplepreference.metrics;
+
+/**
+ * Listener notified about every operation recorded by {@link PreferenceMetrics}, for example to forward
+ * the measurements into telemetry. Called on the thread that performed the operation, so implementations
+ * should return quickly.
+ */
+public interface MetricsListener {
+
+    /**
+     * Called once an operation completes
+     *
+     * @param operation     the operation performed
+     * @param key           the key the operation was performed on, null for operations not bound to a key
+     * @param durationNanos the duration of the operation in nanoseconds
+     */
+    void onOperation(Operation operation, String key, long durationNanos);
+
+    /**
+     * Called when a value is committed against a key
+     *
+     * @param key    the key against which the data is stored
+     * @param length the size of the stored value in bytes, UTF-8 for Strings
+     */
+    void onValueStored(String key, int length);
+}
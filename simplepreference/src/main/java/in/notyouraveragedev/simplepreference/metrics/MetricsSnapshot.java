@@ -0,0 +1,74 @@
+package in.notyouraveragedev.simplepreference.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point in time copy of the measurements of {@link PreferenceMetrics}
+ */
+public final class MetricsSnapshot {
+    private final Map<Operation, LatencyStats> latencies;
+    private final Map<String, Integer> storedLengths;
+
+    MetricsSnapshot(Map<Operation, LatencyStats> latencies, Map<String, Integer> storedLengths) {
+        this.latencies = Collections.unmodifiableMap(latencies);
+        this.storedLengths = Collections.unmodifiableMap(storedLengths);
+    }
+
+    /**
+     * @return the latency histogram of the operation, empty if the operation was never performed
+     */
+    public LatencyStats getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public Map<Operation, LatencyStats> getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return the number of commits into the storage backend
+     */
+    public long getCommitCount() {
+        return latencies.get(Operation.COMMIT).getCount();
+    }
+
+    /**
+     * @return the size in bytes of the value last committed against every key, as written after compression
+     * and encryption, Strings being counted in UTF-8
+     */
+    public Map<String, Integer> getStoredLengths() {
+        return storedLengths;
+    }
+
+    /**
+     * Returns the keys holding the largest stored values, which are the ones bloating the preference file
+     *
+     * @param limit the maximum number of keys to be returned
+     * @return the keys, largest first
+     */
+    public List<String> getLargestKeys(int limit) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(storedLengths.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> first, Map.Entry<String, Integer> second) {
+                return second.getValue().compareTo(first.getValue());
+            }
+        });
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < entries.size() && i < limit; i++)
+            keys.add(entries.get(i).getKey());
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "latencies=" + latencies +
+                ", storedLengths=" + storedLengths +
+                '}';
+    }
+}
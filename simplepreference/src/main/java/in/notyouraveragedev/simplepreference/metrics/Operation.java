@@ -0,0 +1,46 @@
+package in.notyouraveragedev.simplepreference.metrics;
+
+/**
+ * Operations of SimplePreferenceManager whose latency is recorded by {@link PreferenceMetrics}
+ */
+public enum Operation {
+    SAVE_OBJECT,
+    FETCH_OBJECT,
+    SAVE_STRING,
+    FETCH_STRING,
+    SAVE_INTEGER,
+    FETCH_INTEGER,
+    SAVE_LONG,
+    FETCH_LONG,
+    SAVE_BOOLEAN,
+    FETCH_BOOLEAN,
+    SAVE_FLOAT,
+    FETCH_FLOAT,
+    SAVE_STRING_SET,
+    FETCH_STRING_SET,
+    PUT_ALL,
+    REMOVE_DATA,
+    REMOVE_ALL,
+    FETCH_ALL_WITH_PREFIX,
+    REMOVE_ALL_WITH_PREFIX,
+    EXPORT,
+    IMPORT,
+    CONTAINS,
+    TRANSACTION,
+    /**
+     * Loading of the storage on a background thread
+     */
+    LOAD,
+    /**
+     * A commit of changes into the storage backend, including the ones of write-behind flushes
+     */
+    COMMIT,
+    /**
+     * Conversion of an object into the stored String by the ObjectCodec
+     */
+    ENCODE,
+    /**
+     * Conversion of a stored String back into an object by the ObjectCodec
+     */
+    DECODE
+}
@@ -0,0 +1,124 @@
+package in.notyouraveragedev.simplepreference.metrics;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the latency of the operations of a SimplePreferenceManager, the number of commits
+ * and the size in bytes of the data stored against every key.
+ * <p>
+ * The measurements can be read using {@link #getSnapshot()} or observed as they happen
+ * using a {@link MetricsListener}. Recording is lock free, so it can stay enabled in production.
+ */
+public class PreferenceMetrics {
+
+    private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+    private final Map<String, Integer> storedLengths = new ConcurrentHashMap<>();
+    private final List<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+    public PreferenceMetrics() {
+        for (Operation operation : Operation.values())
+            histograms.put(operation, new Histogram());
+    }
+
+    /**
+     * Records the duration of an operation
+     *
+     * @param operation     the operation performed
+     * @param key           the key the operation was performed on, null if not bound to a key
+     * @param durationNanos the duration of the operation in nanoseconds
+     */
+    public void recordLatency(Operation operation, String key, long durationNanos) {
+        histograms.get(operation).record(durationNanos);
+        for (MetricsListener listener : listeners)
+            listener.onOperation(operation, key, durationNanos);
+    }
+
+    /**
+     * Records the size of the value stored against a key
+     *
+     * @param key    the key against which the data is stored
+     * @param length the size of the stored value in bytes, UTF-8 for Strings
+     */
+    public void recordStoredLength(String key, int length) {
+        storedLengths.put(key, length);
+        for (MetricsListener listener : listeners)
+            listener.onValueStored(key, length);
+    }
+
+    /**
+     * Forgets the stored size of a removed key, null to forget all the keys
+     */
+    public void recordRemoved(String key) {
+        if (key == null)
+            storedLengths.clear();
+        else
+            storedLengths.remove(key);
+    }
+
+    public void addListener(MetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return a copy of the current measurements
+     */
+    public MetricsSnapshot getSnapshot() {
+        Map<Operation, LatencyStats> latencies = new EnumMap<>(Operation.class);
+        for (Map.Entry<Operation, Histogram> entry : histograms.entrySet())
+            latencies.put(entry.getKey(), entry.getValue().snapshot());
+        return new MetricsSnapshot(latencies, new HashMap<>(storedLengths));
+    }
+
+    /**
+     * Clears all the measurements
+     */
+    public void reset() {
+        for (Histogram histogram : histograms.values())
+            histogram.reset();
+        storedLengths.clear();
+    }
+
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long durationNanos) {
+            long duration = Math.max(durationNanos, 0);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(duration, 1)));
+            count.incrementAndGet();
+            totalNanos.addAndGet(duration);
+            long max;
+            while (duration > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, duration)) {
+                // retry until the maximum is updated or a larger one was recorded concurrently
+            }
+        }
+
+        LatencyStats snapshot() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++)
+                counts[i] = buckets.get(i);
+            return new LatencyStats(count.get(), totalNanos.get(), maxNanos.get(), counts);
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++)
+                buckets.set(i, 0);
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+    }
+}
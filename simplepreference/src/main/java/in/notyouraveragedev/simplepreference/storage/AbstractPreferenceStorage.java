@@ -0,0 +1,255 @@
+package in.notyouraveragedev.simplepreference.storage;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Base class for the storage backends of SimplePreferenceManager.
+ * <p>
+ * Backends implement the SharedPreferences contract, so that SimplePreferenceManager works the same way
+ * on top of the Android SharedPreferences or any other backend. This class keeps all the values in memory,
+ * serves the reads from memory and takes care of the Editor and the change listeners. Subclasses only
+ * need to load the values initially and persist the changes of every commit using {@link #persist(boolean, Map)}.
+ * <p>
+ * Unlike the Android implementation, change listeners are notified on the thread that committed the changes.
+ */
+public abstract class AbstractPreferenceStorage implements SharedPreferences {
+
+    /**
+     * Values currently stored, guarded by this
+     */
+    protected final Map<String, Object> values = new HashMap<>();
+
+    private final Map<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+
+    /**
+     * Persists the changes of a commit. Called while holding the lock of this storage,
+     * after the changes have already been applied to {@link #values}.
+     *
+     * @param cleared whether all the existing values were removed before applying the changes
+     * @param changes the changed values in the order they were made, null values denote removed keys
+     * @return true if the changes were persisted successfully, otherwise false
+     */
+    protected abstract boolean persist(boolean cleared, Map<String, Object> changes);
+
+    /**
+     * Called before every read and commit without holding the lock of this storage, so that a backend shared
+     * with other processes can pick up their changes. Does nothing by default.
+     */
+    protected void refresh() {
+    }
+
+    /**
+     * Notifies the listeners of changes that were not committed through this storage, for example by another
+     * process. Must be called without holding the lock of this storage.
+     *
+     * @param cleared     whether all the values were removed before the changes
+     * @param changedKeys the keys whose value changed
+     */
+    protected void notifyExternalChanges(boolean cleared, Set<String> changedKeys) {
+        notifyListeners(cleared, changedKeys);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        refresh();
+        synchronized (this) {
+            return new HashMap<>(values);
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        refresh();
+        synchronized (this) {
+            String value = (String) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked"})
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        refresh();
+        synchronized (this) {
+            Set<String> value = (Set<String>) values.get(key);
+            return value != null ? value : defValues;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        refresh();
+        synchronized (this) {
+            Integer value = (Integer) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        refresh();
+        synchronized (this) {
+            Long value = (Long) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        refresh();
+        synchronized (this) {
+            Float value = (Float) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        refresh();
+        synchronized (this) {
+            Boolean value = (Boolean) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        refresh();
+        synchronized (this) {
+            return values.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new StorageEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, this);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    private boolean commitChanges(boolean clear, Map<String, Object> changes) {
+        refresh();
+        boolean result;
+        synchronized (this) {
+            if (clear)
+                values.clear();
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                if (change.getValue() == null)
+                    values.remove(change.getKey());
+                else
+                    values.put(change.getKey(), change.getValue());
+            }
+            result = persist(clear, changes);
+        }
+        notifyListeners(clear, changes.keySet());
+        return result;
+    }
+
+    private void notifyListeners(boolean cleared, Set<String> changedKeys) {
+        List<OnSharedPreferenceChangeListener> toNotify;
+        synchronized (listeners) {
+            if (listeners.isEmpty())
+                return;
+            toNotify = new ArrayList<>(listeners.keySet());
+        }
+        for (OnSharedPreferenceChangeListener listener : toNotify) {
+            // same as the Android implementation, a cleared storage is reported using a null key
+            if (cleared)
+                listener.onSharedPreferenceChanged(this, null);
+            for (String key : changedKeys)
+                listener.onSharedPreferenceChanged(this, key);
+        }
+    }
+
+    private class StorageEditor implements Editor {
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private boolean clear = false;
+
+        @Override
+        public synchronized Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putStringSet(String key, Set<String> values) {
+            changes.put(key, values == null ? null : new HashSet<>(values));
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            Map<String, Object> toCommit;
+            boolean toClear;
+            synchronized (this) {
+                toCommit = new LinkedHashMap<>(changes);
+                toClear = clear;
+                changes.clear();
+                clear = false;
+            }
+            return commitChanges(toClear, toCommit);
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
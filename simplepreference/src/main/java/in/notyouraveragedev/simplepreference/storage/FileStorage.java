@@ -0,0 +1,107 @@
+package in.notyouraveragedev.simplepreference.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Storage backend keeping the values in a plain file, without depending on Android.
+ * <p>
+ * Behaves like the Android SharedPreferences: all values are held in memory and every commit rewrites
+ * the whole file. The file is written to a temporary file first and then renamed, so that a crash
+ * leaves either the old or the new file.
+ * <p>
+ * Only one instance may exist per file, hence instances are obtained using {@link #open(File)}.
+ */
+public class FileStorage extends AbstractPreferenceStorage {
+
+    private static final int MAGIC = 0x53504653;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Map<String, FileStorage> instances = new HashMap<>();
+
+    private final File file;
+
+    /**
+     * Opens the storage of the specified file, the file is created on the first commit
+     *
+     * @param file the file holding the values
+     * @return the storage of the file
+     * @throws IOException if the existing file could not be read
+     */
+    public static FileStorage open(File file) throws IOException {
+        synchronized (instances) {
+            String path = file.getCanonicalPath();
+            FileStorage storage = instances.get(path);
+            if (storage == null) {
+                storage = new FileStorage(file);
+                instances.put(path, storage);
+            }
+            return storage;
+        }
+    }
+
+    private FileStorage(File file) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    private synchronized void load() throws IOException {
+        if (!file.exists())
+            return;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a preference storage file");
+            int version = in.readInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException("Unsupported format version " + version + " in " + file);
+            int count = in.readInt();
+            Object[] record = new Object[2];
+            for (int i = 0; i < count; i++) {
+                StorageRecords.read(in, record);
+                values.put((String) record[0], record[1]);
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is truncated", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    protected boolean persist(boolean cleared, Map<String, Object> changes) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            return false;
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temporaryFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(values.size());
+                for (Map.Entry<String, Object> entry : values.entrySet())
+                    StorageRecords.write(out, entry.getKey(), entry.getValue());
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                out.close();
+            }
+            return temporaryFile.renameTo(file);
+        } catch (IOException e) {
+            temporaryFile.delete();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package in.notyouraveragedev.simplepreference.storage;
+
+import java.util.Map;
+
+/**
+ * Storage backend keeping the values only in memory.
+ * <p>
+ * Useful for tests and benchmarks on a plain JVM, and for data that must not outlive the process.
+ */
+public class InMemoryStorage extends AbstractPreferenceStorage {
+
+    @Override
+    protected boolean persist(boolean cleared, Map<String, Object> changes) {
+        return true;
+    }
+}
@@ -0,0 +1,461 @@
+package in.notyouraveragedev.simplepreference.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Storage backend keeping the values in a memory-mapped, append-only log file.
+ * <p>
+ * Every commit only appends the records of the changed keys to the mapped file and then moves the
+ * committed length in the file header, so the cost of a write depends on the size of the change instead
+ * of the size of the whole file. Records superseded by later writes are garbage; once the garbage exceeds
+ * the compaction threshold the live values are rewritten into a fresh file on a background thread.
+ * The values are copied under the lock but written without it, so that reads and commits only wait
+ * for the records appended during the rewrite to be copied over and the mapping to be swapped.
+ * A commit clearing the values rewrites the log the same way, right away.
+ * <p>
+ * Writes to the mapping survive the death of the process since they are held by the operating system,
+ * but are not forced to the disk on every commit.
+ * <p>
+ * Only one instance may exist per file, hence instances are obtained using {@link #open(File)}.
+ */
+public class MappedLogStorage extends AbstractPreferenceStorage implements Closeable {
+
+    private static final int MAGIC = 0x53504c47;
+    private static final int FORMAT_VERSION = 1;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    /**
+     * Logs smaller than this are not compacted, since compacting them would not save anything noticeable
+     */
+    private static final int MIN_COMPACTION_LENGTH = 64 * 1024;
+    private static final float DEFAULT_COMPACTION_THRESHOLD = 0.5f;
+
+    private static final Map<String, MappedLogStorage> instances = new HashMap<>();
+    private static ExecutorService compactionExecutor;
+
+    private final File file;
+    private final float compactionThreshold;
+    /**
+     * Size of the live record of every key, used to track the garbage in the log
+     */
+    private final Map<String, Integer> recordSizes = new HashMap<>();
+
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private int length;
+    private int garbageBytes;
+    private boolean isCompactionScheduled;
+    private boolean isClosed;
+    /**
+     * Number of times the log was replaced, telling whether a compaction was overtaken by another one
+     */
+    private long compactionCount;
+    /**
+     * Held for the whole compaction, so that two compactions do not write the same file
+     */
+    private final Object compactionLock = new Object();
+
+    /**
+     * Opens the log storage of the specified file, creating the file if it does not exist
+     *
+     * @param file the log file
+     * @return the storage of the file
+     * @throws IOException if the file could not be opened or mapped
+     */
+    public static MappedLogStorage open(File file) throws IOException {
+        return open(file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the log storage of the specified file, creating the file if it does not exist.
+     * If the file is already open, the existing instance is returned and the threshold is ignored.
+     *
+     * @param file                the log file
+     * @param compactionThreshold the ratio of garbage to the log length above which the log is compacted
+     * @return the storage of the file
+     * @throws IOException if the file could not be opened or mapped
+     */
+    public static MappedLogStorage open(File file, float compactionThreshold) throws IOException {
+        if (compactionThreshold <= 0 || compactionThreshold >= 1)
+            throw new IllegalArgumentException("compactionThreshold must be between 0 and 1");
+        synchronized (instances) {
+            String path = file.getCanonicalPath();
+            MappedLogStorage storage = instances.get(path);
+            if (storage == null) {
+                storage = new MappedLogStorage(file, compactionThreshold);
+                instances.put(path, storage);
+            }
+            return storage;
+        }
+    }
+
+    private MappedLogStorage(File file, float compactionThreshold) throws IOException {
+        this.file = file;
+        this.compactionThreshold = compactionThreshold;
+        load();
+    }
+
+    private synchronized void load() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Could not create directory " + parent);
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        long fileLength = randomAccessFile.length();
+        map(Math.max(INITIAL_CAPACITY, fileLength));
+
+        if (fileLength < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            writeHeader(HEADER_SIZE);
+            return;
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION)
+            throw new IOException("Unsupported log format version " + buffer.getInt(4) + " in " + file);
+
+        int committedLength = buffer.getInt(LENGTH_OFFSET);
+        if (committedLength < HEADER_SIZE || committedLength > fileLength)
+            committedLength = HEADER_SIZE;
+        length = replay(committedLength);
+        if (length != committedLength)
+            writeHeader(length);
+    }
+
+    /**
+     * Replays the records of the log into memory
+     *
+     * @return the length of the log up to the last complete record
+     */
+    private int replay(int committedLength) {
+        byte[] log = new byte[committedLength - HEADER_SIZE];
+        buffer.position(HEADER_SIZE);
+        buffer.get(log);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(log));
+        Object[] record = new Object[2];
+        int position = 0;
+        try {
+            while (position < log.length) {
+                StorageRecords.read(in, record);
+                int recordSize = log.length - in.available() - position;
+                position += recordSize;
+                applyRecord((String) record[0], record[1], recordSize);
+            }
+        } catch (IOException e) {
+            // a torn record at the end of the log, everything before it is still valid
+        }
+        return HEADER_SIZE + position;
+    }
+
+    private void applyRecord(String key, Object value, int recordSize) {
+        trackRecord(key, value, recordSize);
+        if (value == null)
+            values.remove(key);
+        else
+            values.put(key, value);
+    }
+
+    /**
+     * Updates the record sizes and the garbage for a record appended to the log
+     */
+    private void trackRecord(String key, Object value, int recordSize) {
+        Integer previousSize = recordSizes.remove(key);
+        if (previousSize != null)
+            garbageBytes += previousSize;
+        if (value == null)
+            garbageBytes += recordSize;
+        else
+            recordSizes.put(key, recordSize);
+    }
+
+    @Override
+    protected boolean persist(boolean cleared, Map<String, Object> changes) {
+        try {
+            if (cleared) {
+                // the values hold the changes made after the clear already, rewriting them into a separate file
+                // which replaces the log leaves either the old or the new log after a crash
+                File rewrittenFile = new File(file.getPath() + ".rewrite");
+                Map<String, Integer> rewrittenSizes = new HashMap<>();
+                int rewrittenLength = writeLog(rewrittenFile, values, rewrittenSizes);
+                replaceLog(rewrittenFile, rewrittenLength, length, rewrittenSizes);
+                return true;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int[] sizes = new int[changes.size()];
+            int index = 0;
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                int start = out.size();
+                StorageRecords.write(out, change.getKey(), change.getValue());
+                sizes[index++] = out.size() - start;
+            }
+
+            // grown even if there is garbage, compaction runs in background afterwards
+            if (length + bytes.size() > buffer.capacity())
+                map(nextCapacity(length + bytes.size()));
+
+            buffer.position(length);
+            buffer.put(bytes.toByteArray());
+            writeHeader(length + bytes.size());
+
+            index = 0;
+            for (Map.Entry<String, Object> change : changes.entrySet())
+                applyRecord(change.getKey(), change.getValue(), sizes[index++]);
+
+            if (hasCompactableGarbage())
+                scheduleCompaction();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of bytes taken by superseded records
+     */
+    public synchronized int getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * @return the number of bytes of the log, including the header
+     */
+    public synchronized int getLength() {
+        return length;
+    }
+
+    /**
+     * Rewrites the log to contain only the live values. The values are written into a separate file without
+     * holding the lock of this storage, which is only held again to copy the records committed meanwhile
+     * and to replace the log.
+     *
+     * @throws IOException if the compacted log could not be written
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            Map<String, Object> snapshot;
+            int snapshotLength;
+            long snapshotCompactionCount;
+            synchronized (this) {
+                if (isClosed)
+                    return;
+                snapshot = new HashMap<>(values);
+                snapshotLength = length;
+                snapshotCompactionCount = compactionCount;
+            }
+
+            File compactedFile = new File(file.getPath() + ".compact");
+            Map<String, Integer> compactedSizes = new HashMap<>();
+            int compactedLength = writeLog(compactedFile, snapshot, compactedSizes);
+
+            synchronized (this) {
+                if (isClosed || compactionCount != snapshotCompactionCount) {
+                    // the log was rewritten meanwhile by a clear, the snapshot is outdated
+                    compactedFile.delete();
+                    return;
+                }
+                replaceLog(compactedFile, compactedLength, snapshotLength, compactedSizes);
+            }
+        }
+    }
+
+    /**
+     * Writes the values as a complete log into the file and forces it to the disk
+     *
+     * @param sizes receives the size of the record of every key
+     * @return the length of the log written
+     */
+    private static int writeLog(File logFile, Map<String, Object> logValues, Map<String, Integer> sizes)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(0);
+        out.writeInt(0);
+        for (Map.Entry<String, Object> entry : logValues.entrySet()) {
+            int start = out.size();
+            StorageRecords.write(out, entry.getKey(), entry.getValue());
+            sizes.put(entry.getKey(), out.size() - start);
+        }
+        byte[] log = bytes.toByteArray();
+        writeInt(log, LENGTH_OFFSET, log.length);
+
+        RandomAccessFile output = new RandomAccessFile(logFile, "rw");
+        try {
+            output.setLength(0);
+            output.write(log);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        return log.length;
+    }
+
+    /**
+     * Replaces the log with the rewritten file, called with the lock held. The records appended to the log
+     * after the rewritten values were copied are appended to the rewritten file first. The rewritten file
+     * is opened and mapped before being renamed, so that a failure leaves the current log in use.
+     *
+     * @param rewrittenLength the length of the log in the rewritten file
+     * @param copiedLength    the length of the current log when the values were copied
+     * @param rewrittenSizes  the size of the record of every key in the rewritten file
+     */
+    private void replaceLog(File rewrittenFile, int rewrittenLength, int copiedLength,
+                            Map<String, Integer> rewrittenSizes) throws IOException {
+        byte[] appended = new byte[length - copiedLength];
+        buffer.position(copiedLength);
+        buffer.get(appended);
+        int replacedLength = rewrittenLength + appended.length;
+
+        RandomAccessFile rewritten = new RandomAccessFile(rewrittenFile, "rw");
+        MappedByteBuffer rewrittenBuffer;
+        try {
+            if (appended.length > 0) {
+                rewritten.seek(rewrittenLength);
+                rewritten.write(appended);
+                rewritten.seek(LENGTH_OFFSET);
+                rewritten.writeInt(replacedLength);
+                rewritten.getFD().sync();
+            }
+            rewrittenBuffer = rewritten.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    nextCapacity(replacedLength));
+            // written to a separate file and renamed, so that a crash leaves either the old or the new log
+            if (!rewrittenFile.renameTo(file))
+                throw new IOException("Could not replace " + file + " with the rewritten log");
+        } catch (IOException e) {
+            rewritten.close();
+            rewrittenFile.delete();
+            throw e;
+        }
+
+        RandomAccessFile replaced = randomAccessFile;
+        randomAccessFile = rewritten;
+        buffer = rewrittenBuffer;
+        length = replacedLength;
+        compactionCount++;
+        try {
+            replaced.close();
+        } catch (IOException e) {
+            // the replaced log is not used anymore
+        }
+
+        garbageBytes = 0;
+        recordSizes.clear();
+        recordSizes.putAll(rewrittenSizes);
+        trackAppendedRecords(appended);
+    }
+
+    /**
+     * Tracks the sizes of the records appended during a rewrite, whose values are already held in memory
+     */
+    private void trackAppendedRecords(byte[] appended) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(appended));
+        Object[] record = new Object[2];
+        int position = 0;
+        try {
+            while (position < appended.length) {
+                StorageRecords.read(in, record);
+                int recordSize = appended.length - in.available() - position;
+                position += recordSize;
+                trackRecord((String) record[0], record[1], recordSize);
+            }
+        } catch (IOException e) {
+            // the records were written by this storage, they are complete
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Forces the pending changes to the disk and closes the file.
+     * The storage must not be used afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        synchronized (instances) {
+            instances.remove(file.getCanonicalPath());
+        }
+        isClosed = true;
+        if (buffer != null)
+            buffer.force();
+        randomAccessFile.close();
+    }
+
+    private boolean hasCompactableGarbage() {
+        return length >= MIN_COMPACTION_LENGTH && garbageBytes > length * compactionThreshold;
+    }
+
+    private void scheduleCompaction() {
+        if (isCompactionScheduled)
+            return;
+        isCompactionScheduled = true;
+        getCompactionExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MappedLogStorage.this) {
+                    isCompactionScheduled = false;
+                    if (isClosed || !hasCompactableGarbage())
+                        return;
+                }
+                try {
+                    compact();
+                } catch (IOException e) {
+                    // the existing log is still intact, compaction is retried after the next write
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getCompactionExecutor() {
+        if (compactionExecutor == null) {
+            compactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SimplePreference-Compaction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return compactionExecutor;
+    }
+
+    private void map(long capacity) throws IOException {
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void writeHeader(int committedLength) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        // the committed length is written last, it is what makes the appended records visible
+        buffer.putInt(LENGTH_OFFSET, committedLength);
+        length = committedLength;
+    }
+
+    private static long nextCapacity(int required) {
+        long capacity = INITIAL_CAPACITY;
+        while (capacity < required)
+            capacity *= 2;
+        return capacity;
+    }
+}
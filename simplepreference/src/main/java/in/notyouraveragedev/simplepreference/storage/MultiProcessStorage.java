@@ -0,0 +1,261 @@
+package in.notyouraveragedev.simplepreference.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage backend whose file can be shared by several processes of the app, for example a sync service
+ * and the UI process.
+ * <p>
+ * The values are kept in a data file rewritten on every commit like {@link FileStorage}. Next to it,
+ * a small header file holds a change sequence number and is memory-mapped by every process:
+ * <ul>
+ * <li>Writers take an exclusive lock on the header file, reload the data file if another process committed
+ * since it was last loaded so that its changes are not overwritten, write the data file and then increment
+ * the sequence number.</li>
+ * <li>Readers only compare the mapped sequence number with the one of the data they hold, and reload the data
+ * file only when it moved. Reading the header does not involve a system call.</li>
+ * </ul>
+ * The changes of other processes are notified to the listeners on the thread that notices them while
+ * reading or committing.
+ * <p>
+ * Only one instance may exist per file in a process, hence instances are obtained using {@link #open(File)}.
+ */
+public class MultiProcessStorage extends AbstractPreferenceStorage implements Closeable {
+
+    private static final int MAGIC = 0x53504d50;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_MAGIC = 0x5350534e;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+
+    private static final Map<String, MultiProcessStorage> instances = new HashMap<>();
+
+    private final File file;
+    private final RandomAccessFile headerFile;
+    private final MappedByteBuffer header;
+    /**
+     * Sequence number of the data held in memory
+     */
+    private volatile long loadedSequence = -1;
+    /**
+     * Keys changed by other processes found while committing, notified on the next refresh, written under this
+     * and volatile so that the check of refresh done without the lock sees them
+     */
+    private volatile Set<String> unnotifiedKeys;
+
+    /**
+     * Opens the storage of the specified file, the data file is created on the first commit
+     * and the header file, named after the data file with the suffix ".seq", when opened
+     *
+     * @param file the file holding the values
+     * @return the storage of the file
+     * @throws IOException if the header file could not be mapped or the existing data file could not be read
+     */
+    public static MultiProcessStorage open(File file) throws IOException {
+        synchronized (instances) {
+            String path = file.getCanonicalPath();
+            MultiProcessStorage storage = instances.get(path);
+            if (storage == null) {
+                storage = new MultiProcessStorage(file);
+                instances.put(path, storage);
+            }
+            return storage;
+        }
+    }
+
+    private MultiProcessStorage(File file) throws IOException {
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Could not create directory " + parent);
+        this.headerFile = new RandomAccessFile(new File(file.getPath() + ".seq"), "rw");
+        this.header = headerFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        FileLock lock = headerFile.getChannel().lock();
+        try {
+            if (header.getInt(0) != HEADER_MAGIC) {
+                header.putLong(SEQUENCE_OFFSET, 0);
+                header.putInt(0, HEADER_MAGIC);
+            }
+            synchronized (this) {
+                loadedSequence = header.getLong(SEQUENCE_OFFSET);
+                values.putAll(readDataFile());
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * @return the change sequence number of the file, incremented by every commit of any process
+     */
+    public long getSequence() {
+        return header.getLong(SEQUENCE_OFFSET);
+    }
+
+    @Override
+    protected void refresh() {
+        if (header.getLong(SEQUENCE_OFFSET) == loadedSequence && unnotifiedKeys == null)
+            return;
+        Set<String> changedKeys;
+        synchronized (this) {
+            changedKeys = unnotifiedKeys != null ? unnotifiedKeys : new HashSet<String>();
+            unnotifiedKeys = null;
+            // the sequence is read before the data, a commit made meanwhile makes the next read reload again
+            long sequence = header.getLong(SEQUENCE_OFFSET);
+            if (sequence != loadedSequence) {
+                try {
+                    changedKeys.addAll(reload(readDataFile()));
+                    loadedSequence = sequence;
+                } catch (IOException e) {
+                    // keep serving the data held, the reload is retried on the next read
+                }
+            }
+        }
+        if (!changedKeys.isEmpty())
+            notifyExternalChanges(false, changedKeys);
+    }
+
+    @Override
+    protected boolean persist(boolean cleared, Map<String, Object> changes) {
+        FileLock lock = null;
+        try {
+            lock = headerFile.getChannel().lock();
+            long sequence = header.getLong(SEQUENCE_OFFSET);
+            if (sequence != loadedSequence && !cleared) {
+                // another process committed after the values were last loaded, apply the changes on top of its data
+                Map<String, Object> stored = readDataFile();
+                stored.putAll(changes);
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    if (change.getValue() == null)
+                        stored.remove(change.getKey());
+                }
+                Set<String> changedKeys = reload(stored);
+                changedKeys.removeAll(changes.keySet());
+                if (!changedKeys.isEmpty()) {
+                    if (unnotifiedKeys == null)
+                        unnotifiedKeys = new HashSet<>();
+                    unnotifiedKeys.addAll(changedKeys);
+                }
+            }
+            if (!writeDataFile())
+                return false;
+            loadedSequence = sequence + 1;
+            header.putLong(SEQUENCE_OFFSET, sequence + 1);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (lock != null) {
+                try {
+                    lock.release();
+                } catch (IOException ignored) {
+                    // released anyway when the channel is closed
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the values held with the given ones
+     *
+     * @return the keys whose value changed
+     */
+    private Set<String> reload(Map<String, Object> stored) {
+        Set<String> changedKeys = new HashSet<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (!entry.getValue().equals(stored.get(entry.getKey())))
+                changedKeys.add(entry.getKey());
+        }
+        for (String key : stored.keySet()) {
+            if (!values.containsKey(key))
+                changedKeys.add(key);
+        }
+        values.clear();
+        values.putAll(stored);
+        return changedKeys;
+    }
+
+    private Map<String, Object> readDataFile() throws IOException {
+        Map<String, Object> stored = new HashMap<>();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return stored;
+        }
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a multi-process preference storage file");
+            int version = in.readInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException("Unsupported format version " + version + " in " + file);
+            int count = in.readInt();
+            Object[] record = new Object[2];
+            for (int i = 0; i < count; i++) {
+                StorageRecords.read(in, record);
+                stored.put((String) record[0], record[1]);
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is truncated", e);
+        } finally {
+            in.close();
+        }
+        return stored;
+    }
+
+    /**
+     * Writes the values to a temporary file renamed over the data file, so that readers of other processes
+     * always find a complete file
+     */
+    private boolean writeDataFile() {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temporaryFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(values.size());
+                for (Map.Entry<String, Object> entry : values.entrySet())
+                    StorageRecords.write(out, entry.getKey(), entry.getValue());
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                out.close();
+            }
+            return temporaryFile.renameTo(file);
+        } catch (IOException e) {
+            temporaryFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Closes the header file, the storage must not be used afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (instances) {
+            instances.remove(file.getCanonicalPath());
+        }
+        headerFile.close();
+    }
+}
@@ -0,0 +1,126 @@
+package in.notyouraveragedev.simplepreference.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Binary format of the key-value records written by the file based storage backends,
+ * also used by the binary export of SimplePreferenceManager.
+ * <p>
+ * A record is a type byte, the length prefixed UTF-8 key and, unless the record marks a removal,
+ * the value encoded according to its type.
+ */
+public final class StorageRecords {
+
+    static final byte TYPE_REMOVED = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_INT = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_FLOAT = 4;
+    static final byte TYPE_BOOLEAN = 5;
+    static final byte TYPE_STRING_SET = 6;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private StorageRecords() {
+    }
+
+    /**
+     * Writes a record for the value, a null value writes a removal record
+     */
+    @SuppressWarnings({"unchecked"})
+    public static void write(DataOutput out, String key, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_REMOVED);
+            writeString(out, key);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, key);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            writeString(out, key);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            writeString(out, key);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            writeString(out, key);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            writeString(out, key);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Set) {
+            out.writeByte(TYPE_STRING_SET);
+            writeString(out, key);
+            Set<String> set = (Set<String>) value;
+            out.writeInt(set.size());
+            for (String element : set)
+                writeString(out, element);
+        } else {
+            throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads the next record
+     *
+     * @param in     the input to read from
+     * @param target receives the key at index 0 and the value, null for a removal, at index 1
+     */
+    public static void read(DataInput in, Object[] target) throws IOException {
+        byte type = in.readByte();
+        target[0] = readString(in);
+        switch (type) {
+            case TYPE_REMOVED:
+                target[1] = null;
+                break;
+            case TYPE_STRING:
+                target[1] = readString(in);
+                break;
+            case TYPE_INT:
+                target[1] = in.readInt();
+                break;
+            case TYPE_LONG:
+                target[1] = in.readLong();
+                break;
+            case TYPE_FLOAT:
+                target[1] = in.readFloat();
+                break;
+            case TYPE_BOOLEAN:
+                target[1] = in.readBoolean();
+                break;
+            case TYPE_STRING_SET:
+                int size = in.readInt();
+                Set<String> set = new HashSet<>();
+                for (int i = 0; i < size; i++)
+                    set.add(readString(in));
+                target[1] = set;
+                break;
+            default:
+                throw new IOException("Unknown record type: " + type);
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("Invalid string length: " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+package in.notyouraveragedev.simplepreference;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import in.notyouraveragedev.simplepreference.storage.InMemoryStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Asynchronous writes on a user supplied executor.
+ */
+public class AsyncWriteTest {
+
+    @Test
+    public void writes_runInSubmissionOrder() throws Exception {
+        SimplePreferenceManager preferenceManager = manager(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+        PreferenceFuture last = null;
+        for (int i = 0; i < 20; i++)
+            last = preferenceManager.saveIntegerAsync("integer", i);
+
+        assertTrue(last.get(5, TimeUnit.SECONDS));
+        assertEquals(19, preferenceManager.fetchInteger("integer", -1));
+    }
+
+    @Test
+    public void rejectedWrite_failsItsFutureAndLaterWritesStillRun() throws Exception {
+        SimplePreferenceManager preferenceManager = manager(new Executor() {
+            private boolean isRejecting = true;
+
+            @Override
+            public void execute(Runnable command) {
+                if (isRejecting) {
+                    isRejecting = false;
+                    throw new RejectedExecutionException("saturated");
+                }
+                command.run();
+            }
+        });
+
+        PreferenceFuture rejected = preferenceManager.saveStringAsync("rejected", "value");
+        try {
+            rejected.get(5, TimeUnit.SECONDS);
+            fail("the rejected write should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        assertTrue(preferenceManager.saveStringAsync("accepted", "value").get(5, TimeUnit.SECONDS));
+        assertEquals("value", preferenceManager.fetchString("accepted"));
+    }
+
+    private static SimplePreferenceManager manager(Executor executor) {
+        return new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(new InMemoryStorage())
+                .withAsyncExecutor(executor)
+                .build();
+    }
+}
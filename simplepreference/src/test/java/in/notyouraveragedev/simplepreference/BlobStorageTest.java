@@ -0,0 +1,66 @@
+package in.notyouraveragedev.simplepreference;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Large values offloaded into blob files, including commits failing after updating the values in memory.
+ */
+public class BlobStorageTest {
+
+    private static final String LARGE_VALUE = "a value longer than the threshold";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FailingStorage storage;
+    private File directory;
+    private BlobStorage blobStorage;
+
+    @Before
+    public void setUp() {
+        storage = new FailingStorage();
+        directory = new File(folder.getRoot(), "blobs");
+        blobStorage = new BlobStorage(storage, directory, 10);
+    }
+
+    @Test
+    public void largeValues_areStoredAsBlobs() {
+        blobStorage.edit().putString("large", LARGE_VALUE).putString("small", "value").commit();
+
+        assertEquals(LARGE_VALUE, blobStorage.getString("large", null));
+        assertEquals("value", blobStorage.getString("small", null));
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void failedCommit_keepsTheBlobsReferencedInMemory() {
+        blobStorage.edit().putString("large", LARGE_VALUE).commit();
+        storage.isFailing = true;
+        storage.isApplyingFailedCommits = true;
+
+        blobStorage.edit().putString("large", LARGE_VALUE + " changed").commit();
+
+        assertEquals(LARGE_VALUE + " changed", blobStorage.getString("large", null));
+    }
+
+    @Test
+    public void nextCommit_deletesTheBlobsLeftByAFailedCommit() {
+        blobStorage.edit().putString("large", LARGE_VALUE).commit();
+        storage.isFailing = true;
+        blobStorage.edit().putString("large", LARGE_VALUE + " changed").commit();
+        assertEquals(2, directory.list().length);
+
+        storage.isFailing = false;
+        blobStorage.edit().putString("other", "value").commit();
+
+        assertEquals(LARGE_VALUE, blobStorage.getString("large", null));
+        assertEquals(1, directory.list().length);
+    }
+}
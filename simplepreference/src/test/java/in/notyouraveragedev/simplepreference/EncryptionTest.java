@@ -0,0 +1,63 @@
+package in.notyouraveragedev.simplepreference;
+
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import in.notyouraveragedev.simplepreference.storage.InMemoryStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads through the bounded cache of decrypted values of the encrypted mode.
+ */
+public class EncryptionTest {
+
+    private final InMemoryStorage storage = new InMemoryStorage();
+
+    private SimplePreferenceManager build(int decryptedCacheSize) {
+        return new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(storage)
+                .withEncryption(new SecretKeySpec(new byte[16], "AES"))
+                .withDecryptedValueCache(decryptedCacheSize)
+                .build();
+    }
+
+    @Test
+    public void reads_beyondTheCacheSize_returnTheStoredValues() {
+        SimplePreferenceManager preferenceManager = build(2);
+        for (int i = 0; i < 5; i++)
+            preferenceManager.saveInteger("key" + i, i);
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 5; i++)
+                assertEquals(i, (int) preferenceManager.fetchInteger("key" + i));
+        }
+        assertTrue(storage.getString("key0", "").startsWith("\uFDD0aes:"));
+    }
+
+    @Test
+    public void disabledCache_decryptsEveryRead() {
+        SimplePreferenceManager preferenceManager = build(0);
+        preferenceManager.saveString("string", "value");
+
+        assertEquals("value", preferenceManager.fetchString("string"));
+        assertEquals("value", preferenceManager.fetchString("string"));
+    }
+
+    @Test
+    public void changedValues_areDecryptedAgain() {
+        SimplePreferenceManager preferenceManager = build(2);
+        preferenceManager.saveString("string", "first");
+        assertEquals("first", preferenceManager.fetchString("string"));
+
+        preferenceManager.saveString("string", "second");
+        assertEquals("second", preferenceManager.fetchString("string"));
+
+        preferenceManager.removeData("string");
+        assertNull(preferenceManager.fetchString("string"));
+        assertTrue(storage.getAll().isEmpty());
+    }
+}
@@ -0,0 +1,69 @@
+package in.notyouraveragedev.simplepreference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Values saved with a time to live, and the sweep removing them once expired.
+ */
+public class ExpiringStorageTest {
+
+    private FailingStorage storage;
+    private ExpiringStorage expiringStorage;
+
+    @Before
+    public void setUp() {
+        storage = new FailingStorage();
+        expiringStorage = new ExpiringStorage(storage, TimeUnit.HOURS.toMillis(1));
+    }
+
+    private void saveExpired(String key, String value) {
+        expiringStorage.edit()
+                .putString(key, value)
+                .putLong(ExpiringStorage.expiryKey(key), System.currentTimeMillis() - 1)
+                .commit();
+    }
+
+    @Test
+    public void expiredValues_readAsMissingAndAreSwept() {
+        saveExpired("expired", "value");
+        expiringStorage.edit().putString("kept", "value").commit();
+
+        assertNull(expiringStorage.getString("expired", null));
+        assertEquals(1, expiringStorage.sweep());
+        assertFalse(storage.contains("expired"));
+        assertFalse(storage.contains(ExpiringStorage.expiryKey("expired")));
+        assertEquals("value", expiringStorage.getString("kept", null));
+    }
+
+    @Test
+    public void failedSweep_keepsTheValuesExpired() {
+        saveExpired("expired", "value");
+        storage.isFailing = true;
+
+        assertEquals(0, expiringStorage.sweep());
+        assertTrue(storage.contains("expired"));
+        assertNull(expiringStorage.getString("expired", null));
+
+        storage.isFailing = false;
+        assertEquals(1, expiringStorage.sweep());
+    }
+
+    @Test
+    public void expiryKeys_areRoutedToTheShardOfTheirKey() {
+        ShardedStorage.Router hashRouter = new ShardedStorage.HashRouter("values", 16);
+        ShardedStorage.Router namespaceRouter = new ShardedStorage.NamespaceRouter("values", "cache_");
+        for (String key : new String[]{"cache_feed", "token", "user"}) {
+            assertEquals(hashRouter.route(key), hashRouter.route(ExpiringStorage.expiryKey(key)));
+            assertEquals(namespaceRouter.route(key), namespaceRouter.route(ExpiringStorage.expiryKey(key)));
+        }
+        assertEquals(1, namespaceRouter.route(ExpiringStorage.expiryKey("cache_feed")));
+    }
+}
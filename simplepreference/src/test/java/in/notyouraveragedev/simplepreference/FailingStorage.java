@@ -0,0 +1,151 @@
+package in.notyouraveragedev.simplepreference;
+
+import android.content.SharedPreferences;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import in.notyouraveragedev.simplepreference.storage.InMemoryStorage;
+
+/**
+ * In-memory storage whose commits can be made to fail, counting the commits attempted.
+ * Like the Android storage failing to write its file, failed commits can also be applied in memory.
+ * Commits can be held until a gate is opened, to observe what happens while one is in progress.
+ */
+class FailingStorage implements SharedPreferences {
+
+    private final InMemoryStorage storage = new InMemoryStorage();
+    volatile boolean isFailing;
+    volatile boolean isApplyingFailedCommits;
+    volatile int commitCount;
+    volatile int getAllCount;
+    volatile CountDownLatch commitGate;
+
+    @Override
+    public Map<String, ?> getAll() {
+        getAllCount++;
+        return storage.getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return storage.getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return storage.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return storage.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return storage.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return storage.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return storage.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return storage.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        final Editor editor = storage.edit();
+        return new Editor() {
+            @Override
+            public Editor putString(String key, String value) {
+                editor.putString(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                editor.putStringSet(key, values);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                editor.putInt(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                editor.putLong(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                editor.putFloat(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                editor.putBoolean(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                editor.remove(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                editor.clear();
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                commitCount++;
+                CountDownLatch gate = commitGate;
+                if (gate != null) {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                if (isFailing && isApplyingFailedCommits)
+                    editor.commit();
+                return !isFailing && editor.commit();
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        };
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        storage.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        storage.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+}
@@ -0,0 +1,64 @@
+package in.notyouraveragedev.simplepreference;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import in.notyouraveragedev.simplepreference.metrics.PreferenceMetrics;
+import in.notyouraveragedev.simplepreference.storage.InMemoryStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sizes of the stored values recorded by PreferenceMetrics.
+ */
+public class MetricsTest {
+
+    private final PreferenceMetrics metrics = new PreferenceMetrics();
+
+    @Test
+    public void storedSizes_areRecordedInBytesForEveryType() {
+        SimplePreferenceManager preferenceManager = new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(new InMemoryStorage())
+                .withMetrics(metrics)
+                .build();
+        preferenceManager.saveString("ascii", "value");
+        preferenceManager.saveString("multiByte", "café €");
+        preferenceManager.saveInteger("integer", 1);
+        preferenceManager.saveLong("long", 1L);
+        preferenceManager.saveBoolean("boolean", true);
+        preferenceManager.saveStringSet("set", new HashSet<>(Arrays.asList("a", "bc")));
+
+        Map<String, Integer> sizes = metrics.getSnapshot().getStoredLengths();
+        assertEquals(5, (int) sizes.get("ascii"));
+        assertEquals(9, (int) sizes.get("multiByte"));
+        assertEquals(4, (int) sizes.get("integer"));
+        assertEquals(8, (int) sizes.get("long"));
+        assertEquals(1, (int) sizes.get("boolean"));
+        assertEquals(3, (int) sizes.get("set"));
+
+        preferenceManager.removeData("ascii");
+        assertFalse(metrics.getSnapshot().getStoredLengths().containsKey("ascii"));
+        preferenceManager.removeAll();
+        assertTrue(metrics.getSnapshot().getStoredLengths().isEmpty());
+    }
+
+    @Test
+    public void storedSizes_areThoseOfTheCompressedValues() {
+        SimplePreferenceManager preferenceManager = new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(new InMemoryStorage())
+                .withCompression(64)
+                .withMetrics(metrics)
+                .build();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            value.append("repeated ");
+        preferenceManager.saveString("large", value.toString());
+
+        assertTrue(metrics.getSnapshot().getStoredLengths().get("large") < value.length() / 10);
+    }
+}
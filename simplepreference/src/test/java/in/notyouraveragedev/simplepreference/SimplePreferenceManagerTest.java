@@ -0,0 +1,171 @@
+package in.notyouraveragedev.simplepreference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import in.notyouraveragedev.simplepreference.storage.InMemoryStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Save / fetch round trips of SimplePreferenceManager on the in-memory backend, running on the host JVM.
+ */
+public class SimplePreferenceManagerTest {
+
+    private SimplePreferenceManager preferenceManager;
+
+    @Before
+    public void setUp() {
+        preferenceManager = new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(new InMemoryStorage())
+                .withObjectStorageSupport()
+                .build();
+    }
+
+    @Test
+    public void string_roundTrip() {
+        assertTrue(preferenceManager.saveString("string", "value"));
+        assertEquals("value", preferenceManager.fetchString("string"));
+    }
+
+    @Test
+    public void integer_roundTrip() {
+        assertTrue(preferenceManager.saveInteger("integer", 42));
+        assertEquals(Integer.valueOf(42), preferenceManager.fetchInteger("integer"));
+        assertEquals(42, preferenceManager.fetchInteger("integer", 0));
+    }
+
+    @Test
+    public void long_roundTrip() {
+        assertTrue(preferenceManager.saveLong("long", Long.MAX_VALUE));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), preferenceManager.fetchLong("long"));
+    }
+
+    @Test
+    public void float_roundTrip() {
+        assertTrue(preferenceManager.saveFloat("float", 2.5f));
+        assertEquals(2.5f, preferenceManager.fetchFloat("float", 0f), 0f);
+    }
+
+    @Test
+    public void boolean_roundTrip() {
+        assertTrue(preferenceManager.saveBoolean("boolean", true));
+        assertTrue(preferenceManager.fetchBoolean("boolean"));
+    }
+
+    @Test
+    public void stringSet_roundTrip() {
+        Set<String> values = new HashSet<>(Arrays.asList("a", "b"));
+        assertTrue(preferenceManager.saveStringSet("set", values));
+        assertEquals(values, preferenceManager.fetchStringSet("set"));
+    }
+
+    @Test
+    public void object_roundTrip() {
+        assertTrue(preferenceManager.saveObject("object", new StoredData("name", 7)));
+        assertEquals(new StoredData("name", 7), preferenceManager.fetchObject("object", StoredData.class));
+    }
+
+    @Test
+    public void missingKeys_returnDefaults() {
+        assertNull(preferenceManager.fetchString("missing"));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), preferenceManager.fetchInteger("missing"));
+        assertEquals(5L, preferenceManager.fetchLong("missing", 5L));
+        assertFalse(preferenceManager.fetchBoolean("missing"));
+        assertTrue(preferenceManager.fetchStringSet("missing").isEmpty());
+        assertNull(preferenceManager.fetchObject("missing", StoredData.class));
+    }
+
+    @Test
+    public void removeData_removesOnlyTheKey() {
+        preferenceManager.saveString("removed", "value");
+        preferenceManager.saveString("kept", "value");
+
+        assertTrue(preferenceManager.removeData("removed"));
+
+        assertFalse(preferenceManager.contains("removed"));
+        assertEquals("value", preferenceManager.fetchString("kept"));
+    }
+
+    @Test
+    public void removeAll_removesEverything() {
+        preferenceManager.saveString("string", "value");
+        preferenceManager.saveInteger("integer", 1);
+
+        preferenceManager.removeAll();
+
+        assertFalse(preferenceManager.contains("string"));
+        assertFalse(preferenceManager.contains("integer"));
+        assertNull(preferenceManager.fetchString("string"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void saveObject_withoutObjectSupport_throws() {
+        new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(new InMemoryStorage())
+                .build()
+                .saveObject("object", new StoredData("name", 7));
+    }
+
+    @Test
+    public void putAll_storesEveryTypeAndRemovesNullValues() {
+        preferenceManager.saveString("removed", "value");
+        Map<String, Object> values = new HashMap<>();
+        values.put("string", "value");
+        values.put("integer", 1);
+        values.put("set", new HashSet<>(Arrays.asList("a", "b")));
+        values.put("object", new StoredData("name", 7));
+        values.put("removed", null);
+
+        assertTrue(preferenceManager.putAll(values));
+
+        assertEquals("value", preferenceManager.fetchString("string"));
+        assertEquals(Integer.valueOf(1), preferenceManager.fetchInteger("integer"));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), preferenceManager.fetchStringSet("set"));
+        assertEquals(new StoredData("name", 7), preferenceManager.fetchObject("object", StoredData.class));
+        assertFalse(preferenceManager.contains("removed"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void putAll_withNonStringSet_throws() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("set", new HashSet<>(Arrays.asList(1, 2)));
+        preferenceManager.putAll(values);
+    }
+
+    static class StoredData implements Serializable {
+        String name;
+        int count;
+
+        StoredData() {
+        }
+
+        StoredData(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof StoredData))
+                return false;
+            StoredData data = (StoredData) other;
+            return count == data.count && (name == null ? data.name == null : name.equals(data.name));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (name == null ? 0 : name.hashCode()) + count;
+        }
+    }
+}
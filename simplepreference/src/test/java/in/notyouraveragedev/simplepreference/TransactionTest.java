@@ -0,0 +1,66 @@
+package in.notyouraveragedev.simplepreference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Atomic changes made using runInTransaction, including the roll back of a failed commit.
+ */
+public class TransactionTest {
+
+    private FailingStorage storage;
+    private SimplePreferenceManager preferenceManager;
+
+    @Before
+    public void setUp() {
+        storage = new FailingStorage();
+        preferenceManager = new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(storage)
+                .build();
+    }
+
+    @Test
+    public void transaction_appliesAllTheChanges() {
+        preferenceManager.saveString("removed", "value");
+
+        assertTrue(preferenceManager.runInTransaction(new PreferenceTransaction() {
+            @Override
+            public void execute(TransactionEditor editor) {
+                editor.putString("string", "value").putInteger("integer", 42).remove("removed");
+            }
+        }));
+
+        assertEquals("value", preferenceManager.fetchString("string"));
+        assertEquals(42, (int) preferenceManager.fetchInteger("integer"));
+        assertFalse(preferenceManager.contains("removed"));
+    }
+
+    @Test
+    public void failedCommit_restoresTheChangedKeysOnly() {
+        preferenceManager.saveString("string", "previous");
+        preferenceManager.saveLong("long", 7L);
+        preferenceManager.saveBoolean("untouched", true);
+        storage.isFailing = true;
+        storage.isApplyingFailedCommits = true;
+        int getAllCount = storage.getAllCount;
+
+        assertFalse(preferenceManager.runInTransaction(new PreferenceTransaction() {
+            @Override
+            public void execute(TransactionEditor editor) {
+                // the long is replaced by a value of another type
+                editor.putString("string", "next").putInteger("long", 1).putFloat("added", 1f);
+            }
+        }));
+        storage.isFailing = false;
+
+        assertEquals("previous", storage.getString("string", null));
+        assertEquals(7L, storage.getLong("long", 0L));
+        assertFalse(storage.contains("added"));
+        assertTrue(storage.getBoolean("untouched", false));
+        assertEquals(getAllCount, storage.getAllCount);
+    }
+}
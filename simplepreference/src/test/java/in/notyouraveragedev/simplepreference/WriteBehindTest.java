@@ -0,0 +1,138 @@
+package in.notyouraveragedev.simplepreference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Buffering of the writes in write-behind mode, including failed flushes.
+ */
+public class WriteBehindTest {
+
+    private FailingStorage storage;
+    private SimplePreferenceManager preferenceManager;
+
+    @Before
+    public void setUp() {
+        storage = new FailingStorage();
+        preferenceManager = new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(storage)
+                .withWriteBehind(100, 50)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        storage.isFailing = false;
+        preferenceManager.close();
+    }
+
+    @Test
+    public void writes_areVisibleBeforeFlush() {
+        preferenceManager.saveString("string", "value");
+
+        assertEquals("value", preferenceManager.fetchString("string"));
+        assertNull(storage.getString("string", null));
+    }
+
+    @Test
+    public void flush_writesThePendingChanges() {
+        preferenceManager.saveString("string", "value");
+        preferenceManager.removeData("string");
+        preferenceManager.saveInteger("integer", 42);
+
+        assertTrue(preferenceManager.flush());
+
+        assertFalse(storage.contains("string"));
+        assertEquals(42, storage.getInt("integer", 0));
+    }
+
+    @Test
+    public void failedFlush_keepsThePendingChanges() {
+        storage.isFailing = true;
+        preferenceManager.saveString("string", "value");
+
+        assertFalse(preferenceManager.flush());
+        assertEquals("value", preferenceManager.fetchString("string"));
+
+        storage.isFailing = false;
+        assertTrue(preferenceManager.flush());
+        assertEquals("value", storage.getString("string", null));
+    }
+
+    @Test
+    public void failedScheduledFlush_isRetried() throws InterruptedException {
+        storage.isFailing = true;
+        preferenceManager.saveString("string", "value");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (storage.commitCount < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        storage.isFailing = false;
+        while (!storage.contains("string") && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals("value", storage.getString("string", null));
+    }
+
+    @Test
+    public void readsAndSaves_doNotWaitForACommitInProgress() throws InterruptedException {
+        storage.commitGate = new CountDownLatch(1);
+        preferenceManager.saveString("string", "value");
+        Thread flushThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                preferenceManager.flush();
+            }
+        });
+        flushThread.start();
+        awaitCommitCount(1);
+
+        assertEquals("value", preferenceManager.fetchString("string"));
+        preferenceManager.saveString("other", "value");
+        assertEquals("value", preferenceManager.fetchString("other"));
+
+        storage.commitGate.countDown();
+        flushThread.join(5000);
+        assertEquals("value", storage.getString("string", null));
+    }
+
+    @Test
+    public void thresholdFlush_runsInBackground() throws InterruptedException {
+        storage.commitGate = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++)
+            preferenceManager.saveInteger("key" + i, i);
+        awaitCommitCount(1);
+
+        // the save reaching the threshold returned while the commit is held
+        assertFalse(storage.contains("key0"));
+        storage.commitGate.countDown();
+        assertTrue(preferenceManager.flush());
+        assertEquals(99, storage.getInt("key99", 0));
+    }
+
+    @Test
+    public void close_flushesAndWritesLaterChangesRightAway() {
+        preferenceManager.saveString("before", "value");
+
+        assertTrue(preferenceManager.close());
+        assertEquals("value", storage.getString("before", null));
+
+        preferenceManager.saveString("after", "value");
+        assertEquals("value", storage.getString("after", null));
+    }
+
+    private void awaitCommitCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (storage.commitCount < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(count, storage.commitCount);
+    }
+}
@@ -0,0 +1,85 @@
+package in.notyouraveragedev.simplepreference.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import in.notyouraveragedev.simplepreference.SimplePreferenceManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Persistence of the values written through FileStorage.
+ */
+public class FileStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void open_returnsTheSameInstancePerFile() throws IOException {
+        File file = new File(folder.getRoot(), "same.prefs");
+        assertSame(FileStorage.open(file), FileStorage.open(file));
+    }
+
+    @Test
+    public void values_persistAcrossReopen() throws IOException {
+        File file = new File(folder.getRoot(), "written.prefs");
+        SimplePreferenceManager preferenceManager = manager(FileStorage.open(file));
+        Set<String> values = new HashSet<>(Arrays.asList("a", "b"));
+        preferenceManager.saveString("string", "value");
+        preferenceManager.saveInteger("integer", 42);
+        preferenceManager.saveLong("long", -5L);
+        preferenceManager.saveFloat("float", 1.5f);
+        preferenceManager.saveBoolean("boolean", true);
+        preferenceManager.saveStringSet("set", values);
+
+        SimplePreferenceManager reopened = manager(FileStorage.open(copy(file, "reopened.prefs")));
+
+        assertEquals("value", reopened.fetchString("string"));
+        assertEquals(42, reopened.fetchInteger("integer", 0));
+        assertEquals(-5L, reopened.fetchLong("long", 0L));
+        assertEquals(1.5f, reopened.fetchFloat("float", 0f), 0f);
+        assertTrue(reopened.fetchBoolean("boolean"));
+        assertEquals(values, reopened.fetchStringSet("set"));
+    }
+
+    @Test
+    public void removeAll_persistsAcrossReopen() throws IOException {
+        File file = new File(folder.getRoot(), "cleared.prefs");
+        SimplePreferenceManager preferenceManager = manager(FileStorage.open(file));
+        preferenceManager.saveString("string", "value");
+        preferenceManager.saveInteger("integer", 42);
+
+        preferenceManager.removeAll();
+
+        SimplePreferenceManager reopened = manager(FileStorage.open(copy(file, "reopened-cleared.prefs")));
+        assertFalse(reopened.contains("string"));
+        assertFalse(reopened.contains("integer"));
+    }
+
+    /**
+     * Opens a copy of the file, since the storage of the original file stays open for the whole process
+     */
+    private File copy(File file, String name) throws IOException {
+        File copy = new File(folder.getRoot(), name);
+        Files.copy(file.toPath(), copy.toPath());
+        return copy;
+    }
+
+    private static SimplePreferenceManager manager(FileStorage storage) {
+        return new SimplePreferenceManager.SimplePreferenceManagerBuilder()
+                .usingStorage(storage)
+                .build();
+    }
+}
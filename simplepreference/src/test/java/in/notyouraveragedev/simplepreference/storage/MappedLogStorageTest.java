@@ -0,0 +1,99 @@
+package in.notyouraveragedev.simplepreference.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Persistence of the values written through MappedLogStorage.
+ */
+public class MappedLogStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void values_persistAcrossReopen() throws IOException {
+        File file = new File(folder.getRoot(), "values.mlog");
+        MappedLogStorage storage = MappedLogStorage.open(file);
+        storage.edit().putString("string", "first").putInt("integer", 1).commit();
+        storage.edit().putString("string", "second").remove("integer").commit();
+        storage.close();
+
+        MappedLogStorage reopened = MappedLogStorage.open(file);
+        assertEquals("second", reopened.getString("string", null));
+        assertFalse(reopened.contains("integer"));
+        reopened.close();
+    }
+
+    @Test
+    public void clearWithChanges_persistsOnlyTheChanges() throws IOException {
+        File file = new File(folder.getRoot(), "cleared.mlog");
+        MappedLogStorage storage = MappedLogStorage.open(file);
+        storage.edit().putString("old", "value").putLong("long", 5L).commit();
+
+        assertTrue(storage.edit().clear().putString("new", "value").commit());
+        storage.close();
+
+        MappedLogStorage reopened = MappedLogStorage.open(file);
+        assertFalse(reopened.contains("old"));
+        assertFalse(reopened.contains("long"));
+        assertEquals("value", reopened.getString("new", null));
+        assertEquals(0, reopened.getGarbageBytes());
+        reopened.close();
+    }
+
+    @Test
+    public void compaction_dropsTheGarbageAndKeepsTheValues() throws IOException {
+        File file = new File(folder.getRoot(), "compacted.mlog");
+        MappedLogStorage storage = MappedLogStorage.open(file);
+        for (int i = 0; i < 2000; i++)
+            storage.edit().putString("key" + (i % 10), "value " + i).commit();
+        int length = storage.getLength();
+
+        storage.compact();
+
+        assertEquals(0, storage.getGarbageBytes());
+        assertTrue(storage.getLength() < length);
+        storage.edit().putString("after", "value").commit();
+        storage.close();
+
+        MappedLogStorage reopened = MappedLogStorage.open(file);
+        for (int i = 0; i < 10; i++)
+            assertEquals("value " + (1990 + i), reopened.getString("key" + i, null));
+        assertEquals("value", reopened.getString("after", null));
+        reopened.close();
+    }
+
+    @Test
+    public void commitsDuringCompaction_areKept() throws Exception {
+        File file = new File(folder.getRoot(), "concurrent.mlog");
+        final MappedLogStorage storage = MappedLogStorage.open(file);
+        for (int i = 0; i < 2000; i++)
+            storage.edit().putString("key" + (i % 10), "value " + i).commit();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 2000; i++)
+                    storage.edit().putInt("counter", i).remove("key" + (i % 10)).commit();
+            }
+        });
+        writer.start();
+        while (writer.isAlive())
+            storage.compact();
+        writer.join();
+        storage.close();
+
+        MappedLogStorage reopened = MappedLogStorage.open(file);
+        assertEquals(1999, reopened.getInt("counter", -1));
+        assertFalse(reopened.contains("key0"));
+        reopened.close();
+    }
+}